@@ -20,328 +20,900 @@ package connectx.BabbiniLibra;
 
 import connectx.CXPlayer;
 import connectx.CXBoard;
-import connectx.CXCell;
-import connectx.CXCellState;
 import connectx.CXGameState;
+import connectx.CXSearchStats;
 import java.util.Random;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.concurrent.TimeoutException;
-
-import javax.swing.text.Position;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * Software player only a bit smarter than random.
+ * Software player searching the game tree with alpha-beta pruning and
+ * iterative deepening within the time of the move.
+ * <p>
+ * The positions are scored by the windows of X cells that each player can
+ * still complete, kept up to date by the board as the moves are marked. A
+ * fixed-size transposition table (-Dbabbinilibra.tt.mb) keeps the bounds and
+ * best moves of the positions searched, and the moves are tried in the order
+ * of the table, the killer moves and the history. A winning column is played
+ * at once, and the columns that let the opponent win at once are not searched.
+ * </p>
  * <p>
- * It can detect a single-move win or loss. In all the other cases behaves
- * randomly.
+ * The search algorithm is set with -Dbabbinilibra.search: plain alpha-beta
+ * (the default), principal variation search or MTD(f). The search can use
+ * more threads in two ways: helper threads searching the same position and
+ * sharing the table (Lazy SMP, -Dbabbinilibra.threads), or a fork/join split
+ * of the tree on the main thread (Young Brothers Wait, -Dbabbinilibra.ybw and
+ * -Dbabbinilibra.ybw.threads).
+ * </p>
+ * <p>
+ * The statistics of every move are reported by {@link #lastSearchStats}, and
+ * every iteration and root move by a Flight Recorder event.
  * </p>
  */
-public class BabbiniLibra implements CXPlayer {
-  private Random rand;
+public class BabbiniLibra implements CXPlayer, CXSearchStats.Provider {
   private CXGameState myWin;
   private CXGameState yourWin;
   private int TIMEOUT;
-  private long START;
-  private Integer[] columnOrder;
+  private Deadline deadline; // of the current search, shared by its threads
+  private int[] columnOrder;
+  private int rows;
   private int BESTMOVETMP;
-  private HashMap<Integer, Integer> transpositionTable;
-  int desiredDepth;
+  private TranspositionTable transpositionTable;
+  private int[] lineScores; // evaluateCounts of every line, from our point of view
+  private Searcher[] searchers; // searchers[0] runs on the caller thread
+  private ExecutorService helpers;
+  private Future<?>[] futures;
+  private ForkJoinPool pool;
+  private ThreadLocal<Searcher> workers; // serial searchers of the pool threads
+  private final Queue<Searcher> workerList = new ConcurrentLinkedQueue<>(); // every searcher of workers
+  private Search search;
+  private CXSearchStats stats; // of the last selectColumn call
+
+  // Transposition table size, -Dbabbinilibra.tt.mb=<megabytes>
+  private static final int TT_SIZE_MB = Integer.getInteger("babbinilibra.tt.mb", 64);
+
+  // Search threads (Lazy SMP), -Dbabbinilibra.threads=<threads>
+  private static final int THREADS = Math.max(1, Integer.getInteger("babbinilibra.threads", 1));
+
+  /** Search algorithms of the player. */
+  enum Search {
+    /** Alpha-beta, every child with the full window. */
+    ALPHABETA,
+    /** Principal variation search: null windows after the first child. */
+    PVS,
+    /** MTD(f): null window searches of the root converging on the score. */
+    MTDF
+  }
+
+  // Search algorithm, -Dbabbinilibra.search=alphabeta|pvs|mtdf
+  private static final Search SEARCH = Search.valueOf(System.getProperty("babbinilibra.search", "alphabeta")
+      .toUpperCase());
+
+  // Parallel alpha-beta (Young Brothers Wait) on the main thread,
+  // -Dbabbinilibra.ybw=true, with -Dbabbinilibra.ybw.threads=<threads>
+  private static final boolean YBW = Boolean.getBoolean("babbinilibra.ybw");
+  private static final int YBW_THREADS = Integer.getInteger("babbinilibra.ybw.threads",
+      Runtime.getRuntime().availableProcessors());
+
+  // Nodes closer than this to the horizon are searched serially by one task
+  private static final int YBW_MIN_DEPTH = 4;
 
   /* Default empty constructor */
   public BabbiniLibra() {
   }
 
   public void initPlayer(int M, int N, int K, boolean first, int timeout_in_secs) {
-    // New random seed for each game
-    rand = new Random(System.currentTimeMillis());
     myWin = first ? CXGameState.WINP1 : CXGameState.WINP2;
     yourWin = first ? CXGameState.WINP2 : CXGameState.WINP1;
     TIMEOUT = timeout_in_secs;
-    columnOrder = new Integer[N];
-    transpositionTable = new HashMap<>();
-
-    // inizializzo desiredDepth
-    int dim = Math.max(M, N);
-    if (dim == 4) {
-      desiredDepth = 30;
-    } else if (dim <= 7) {
-      desiredDepth = 12;
-    } else if (dim > 7 && dim <= 10) {
-      desiredDepth = 8;
-    } else if (dim > 10 && dim <= 13) {
-      desiredDepth = 6;
-    } else if (dim > 13 && dim <= 15) {
-      desiredDepth = 5;
-    } else if (dim > 15 && dim <= 20) {
-      desiredDepth = 4;
-    } else if (dim > 20 && dim <= 30) {
-      desiredDepth = 3;
-    } else if (dim > 30) {
-      desiredDepth = 2;
+    search = SEARCH;
+    columnOrder = new int[N];
+    rows = M;
+    if (transpositionTable == null) {
+      transpositionTable = new TranspositionTable(TT_SIZE_MB);
+    } else {
+      transpositionTable.clear();
+    }
+
+    // score of a line with n1 cells of P1 and n2 of P2, at n1 * (K + 1) + n2
+    lineScores = new int[(K + 1) * (K + 1)];
+    for (int n1 = 0; n1 <= K; n1++) {
+      for (int n2 = 0; n1 + n2 <= K; n2++) {
+        lineScores[n1 * (K + 1) + n2] = first ? evaluateCounts(n1, n2) : evaluateCounts(n2, n1);
+      }
     }
 
     // inizializzo columnOrder
     for (int i = 0; i < N; i++) {
       columnOrder[i] = N / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
     }
+
+    searchers = new Searcher[THREADS];
+    for (int h = 0; h < THREADS; h++) {
+      searchers[h] = new Searcher(h);
+    }
+    searchers[0].parallel = YBW;
+    newWorkers();
+    stats = null;
+    if (THREADS > 1 && helpers == null) {
+      helpers = Executors.newFixedThreadPool(THREADS - 1, r -> {
+        Thread t = new Thread(r, "BabbiniLibra helper");
+        t.setDaemon(true);
+        return t;
+      });
+      futures = new Future<?>[THREADS - 1];
+    }
   }
 
-  private void checkTime() throws TimeoutException {
-    long time = System.currentTimeMillis() - START;
-    if ((time / 1000) >= TIMEOUT * (90.0 / 100.0)) {
+  /**
+   * Searches the position to a fixed depth with iterative deepening, as
+   * {@link #selectColumn} does but without time limit, and returns the best
+   * score. Used to compare the search algorithms.
+   */
+  int searchDepth(CXBoard B, int depth, Search search, boolean parallel) {
+    deadline = new Deadline(Long.MAX_VALUE);
+    B.setLineTracking(true);
+    B.setLineWeights(lineScores);
+    transpositionTable.clear();
+    this.search = search;
+    Searcher s = searchers[0];
+    s.ordering.clear();
+    newWorkers();
+    s.B = B;
+    s.parallel = parallel;
+    s.prepare();
+    s.resetCounters();
+    for (int d = 1; d <= depth && Math.abs(s.bestScore) != 1_000_000_000; d++) {
+      s.bestScore = s.chooseMove(d);
+      s.completedDepth = d;
+    }
+    return s.bestScore;
+  }
 
-      throw new TimeoutException();
+  /**
+   * Returns the nodes visited so far by the last search of the caller thread
+   * and of the parallel search, as {@link #searchDepth} or {@link #selectColumn}.
+   */
+  long searchNodes() {
+    long nodes = searchers[0].nodes;
+    for (Searcher w : workerList) {
+      nodes += w.nodes;
     }
+    return nodes;
+  }
 
+  public CXSearchStats lastSearchStats() {
+    return stats;
   }
 
   /**
    * Selects a free colum on game board.
    * <p>
-   * Selects a winning column (if any), otherwise selects a column (if any)
-   * that prevents the adversary to win with his next move. If both previous
-   * cases do not apply, selects a random column.
+   * Searches the game tree with iterative deepening: depth 1, 2, 3... until
+   * the time runs out, the game tree is exhausted or the result is a forced
+   * win or loss. The move of the last completed iteration is played. Every
+   * iteration searches the root moves in the order of the previous iteration
+   * scores, while the transposition table provides the best move of the
+   * previous iteration at the inner nodes. A new iteration is started only if
+   * its predicted duration fits in the remaining time. If the time runs out
+   * (or the thread is interrupted) during an iteration, its root moves that
+   * were searched completely are still used.
+   * </p>
+   * <p>
+   * With more than one thread (Lazy SMP), helper threads run the same search
+   * on forks of the board, with perturbed move orderings and depths, sharing
+   * the transposition table. The caller thread decides when to stop; the move
+   * of the deepest completed iteration among all the threads is played.
+   * </p>
+   * <p>
+   * The counters of all the threads, the times of the iterations of the
+   * caller thread and the principal variation found in the transposition
+   * table are reported by {@link #lastSearchStats}.
    * </p>
    */
   public int selectColumn(CXBoard B) {
-    START = System.currentTimeMillis(); // Save starting time
-    Integer[] L = columnOrder;
-    int i = 0;
-    while (B.fullColumn(L[i])) {
-      i++;
+    deadline = Deadline.forMove(TIMEOUT); // Save starting time
+    B.setLineTracking(true);
+    B.setLineWeights(lineScores);
+    transpositionTable.newSearch();
+    for (Searcher s : searchers) {
+      s.ordering.newSearch();
+      s.resetCounters();
+    }
+    for (Searcher w : workerList) {
+      w.resetCounters();
     }
-    BESTMOVETMP = L[i];
+    stats = new CXSearchStats();
+    searchers[0].stats = stats;
 
-    try {
-      int move = chooseMove(B, L);
-      B.markColumn(move);
-      return move;
-    } catch (TimeoutException e) {
-      System.out.println("timeout. moves: " + (B.N * B.M - 1 - B.numOfMarkedCells()) / 2);
-      return BESTMOVETMP;
+    for (int h = 1; h < THREADS; h++) {
+      searchers[h].B = B.fork();
+      futures[h - 1] = helpers.submit(searchers[h]);
+    }
+    searchers[0].B = B;
+    searchers[0].run();
+    deadline.cancel(); // stops the helpers
+    for (int h = 1; h < THREADS; h++) {
+      try {
+        futures[h - 1].get();
+      } catch (InterruptedException | ExecutionException e) {
+        System.err.println("helper " + h + ": " + e);
+      }
     }
 
+    Searcher best = searchers[0];
+    for (Searcher s : searchers) {
+      if (s.completedDepth > best.completedDepth) {
+        best = s;
+      }
+    }
+    BESTMOVETMP = best.bestMove;
+    for (Searcher s : searchers) {
+      s.addCounters(stats);
+    }
+    for (Searcher w : workerList) {
+      w.addCounters(stats);
+    }
+    stats.setTime(deadline.elapsed());
+    stats.setPrincipalVariation(principalVariation(B, BESTMOVETMP, best.completedDepth));
+    return BESTMOVETMP;
   }
 
-  private Integer chooseMove(CXBoard B, Integer[] L) throws TimeoutException {
-    int bestScore = -1_000_000_000;
-    int alpha = -1_000_000_000;
-    int beta = 1_000_000_000;
-    int move =0;
-     while (B.fullColumn(L[move])) {
-      move++;
-    }
-    move = L[move];
-    for (int i : L) {
-      checkTime();
-      if (B.fullColumn(i)) {
-        System.out.println(i + " full");
-        continue;
-      }
-      // checkTime();
-      CXGameState state = B.markColumn(i);
-      if (state == myWin) {
-        B.unmarkColumn();
-        return i;
+  private int evaluateCounts(int countPlayer, int countOpponent) {
+    if (countPlayer > 0 && countOpponent == 0) {
+      // Winning potential
+      return (int) Math.pow(10, countPlayer);
+    } else if (countPlayer == 0 && countOpponent > 0) {
+      // Losing potential
+      return -(int) Math.pow(10, countOpponent);
+    } else if (countPlayer > 0 && countOpponent > 0) {
+      // Both have potential, check who has the better potential
+      return (int) Math.pow(10, countPlayer) - (int) Math.pow(10, countOpponent);
+    } else {
+      // No one can win here, check positional advantage
+      int score = 0;
+      if (countPlayer > 0) {
+        score += Math.pow(2, countPlayer - 1);
       }
-      int score = abprouning(B, false, alpha, beta, desiredDepth);
-      B.unmarkColumn();
-      if (score > bestScore) {
-        bestScore = score;
-        move = i;
-        BESTMOVETMP = i;
+      if (countOpponent > 0) {
+        score -= Math.pow(2, countOpponent - 1);
       }
-      alpha = Math.max(alpha, bestScore);
-      if (beta <= alpha) {
+
+      return score;
+    }
+  }
+
+  // the score is exact only if it falls inside the window the node was searched with
+  private void storeResult(long key, int score, int depth, int alpha, int beta, int move) {
+    int flag;
+    if (score <= alpha) {
+      flag = TranspositionTable.UPPER;
+    } else if (score >= beta) {
+      flag = TranspositionTable.LOWER;
+    } else {
+      flag = TranspositionTable.EXACT;
+    }
+    transpositionTable.store(key, score, depth, flag, move);
+  }
+
+  // The selected move followed by the best moves of the transposition table,
+  // at most depth moves
+  private int[] principalVariation(CXBoard B, int move, int depth) {
+    CXBoard C = B.fork();
+    int[] pv = new int[Math.max(depth, 1)];
+    int n = 0;
+    pv[n++] = move;
+    while (C.markColumn(move) == CXGameState.OPEN && n < pv.length) {
+      long entry = transpositionTable.probe(C.hashKey());
+      move = entry != 0 ? TranspositionTable.move(entry) : -1;
+      if (move < 0 || move >= C.N || C.fullColumn(move)) {
         break;
       }
-      System.out.println("Move " + i + " score " + score);
+      pv[n++] = move;
     }
-    System.out.println("best move " + move + " score " + bestScore);
-    System.out.println();
-    return move;
+    return java.util.Arrays.copyOf(pv, n);
   }
 
-  private int abprouning(CXBoard B, boolean isMaximizer, int alpha, int beta, int depth) throws TimeoutException {
-    checkTime();
-    if (depth <= 0) {
-    return evaluation(B, B.getLastMove(), depth); // heuristic evaluation of the
-    // open board
+  // Fresh searchers for the pool threads, counted by searchNodes
+  private void newWorkers() {
+    workerList.clear();
+    workers = ThreadLocal.withInitial(() -> {
+      Searcher w = new Searcher(0);
+      workerList.add(w);
+      return w;
+    });
+  }
+
+  private ForkJoinPool pool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(YBW_THREADS);
     }
-    if (isMaximizer) {
-      int bestScore = -1_000_000_000;
+    return pool;
+  }
 
-      int hashBoard = Arrays.deepHashCode(B.getBoard());
-      if (transpositionTable.containsKey(hashBoard)) {
-        bestScore = transpositionTable.get(hashBoard);
-      }
-      for (int x : columnOrder) {
-        if (B.fullColumn(x)) {
-          continue;
+  /**
+   * Alpha-beta node of the parallel search (Young Brothers Wait).
+   * <p>
+   * The first child (the best move of the transposition table or the first
+   * one of the column order) is searched alone; if it does not cause a cutoff
+   * the other children are searched in parallel, each on its own fork of the
+   * board, with the window known when they are started. A cutoff cancels the
+   * children still running, which return incomplete without storing anything,
+   * as do the nodes running when the deadline passes. Nodes close to the
+   * horizon are searched serially by one task.
+   * </p>
+   */
+  private final class YbwNode extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private final CXBoard B;
+    private final boolean isMaximizer;
+    private final int alpha;
+    private final int beta;
+    private final int depth;
+    private final YbwNode parent;
+    private volatile boolean cut;
+    private boolean incomplete; // the result is not valid (cancelled search)
+
+    YbwNode(CXBoard B, boolean isMaximizer, int alpha, int beta, int depth, YbwNode parent) {
+      this.B = B;
+      this.isMaximizer = isMaximizer;
+      this.alpha = alpha;
+      this.beta = beta;
+      this.depth = depth;
+      this.parent = parent;
+    }
+
+    boolean aborted() {
+      for (YbwNode n = this; n != null; n = n.parent) {
+        if (n.cut) {
+          return true;
         }
-        int score;
-        CXGameState status = B.markColumn(x);
-        if (status == myWin) {
-          score = 1_000_000_000;
-        } else if (status == CXGameState.DRAW) {
-          score = 0;
-        } else {
-          score = abprouning(B, false, alpha, beta, depth - 1);
+      }
+      return false;
+    }
+
+    protected Integer compute() {
+      Searcher s = workers.get();
+      if (depth < YBW_MIN_DEPTH) {
+        s.task = this;
+        s.aborted = false;
+        int score = s.abprouning(B, isMaximizer, alpha, beta, depth);
+        incomplete = s.aborted;
+        s.task = null;
+        return score;
+      }
+      s.nodes++;
+      if (deadline.poll() || aborted()) {
+        return abort(null);
+      }
+
+      long safe = -1L;
+      if (B.N <= 64) {
+        if (B.winningColumns(B.currentPlayer()) != 0) {
+          return isMaximizer ? 1_000_000_000 : -1_000_000_000;
         }
-        B.unmarkColumn();
-        bestScore = Math.max(score, bestScore);
-        alpha = Math.max(alpha, bestScore);
-        // in questo ramo viene scelta la mossa con punteggio più alto
-        // quindi se nel turno prima (quello del minimizer)
-        // il valore minimo già trovato (beta) è inferiore ad alpha appena calcolato
-        // posso subito scartare gli altri rami a questo livello
-        if (beta <= alpha) {
-          break;
+        safe = B.nonLosingColumns();
+        if (safe == 0) {
+          return isMaximizer ? -1_000_000_000 : 1_000_000_000;
         }
       }
-      transpositionTable.put(hashBoard, bestScore);
-      return bestScore;
-    } else { // minimizer
-      int bestScore = 1_000_000_000;
-      for (int x : columnOrder) {
-        if (B.fullColumn(x)) {
-          continue;
+
+      int a = alpha;
+      int b = beta;
+      long hashBoard = B.hashKey();
+      long entry = transpositionTable.probe(hashBoard);
+      s.ttProbes++;
+      int ttMove = -1;
+      if (entry != 0) {
+        s.ttHits++;
+        ttMove = TranspositionTable.move(entry);
+        if (TranspositionTable.depth(entry) >= depth) {
+          int ttScore = TranspositionTable.score(entry);
+          int flag = TranspositionTable.flag(entry);
+          if (flag == TranspositionTable.EXACT) {
+            s.ttCutoffs++;
+            return ttScore;
+          } else if (flag == TranspositionTable.LOWER) {
+            a = Math.max(a, ttScore);
+          } else {
+            b = Math.min(b, ttScore);
+          }
+          if (b <= a) {
+            s.ttCutoffs++;
+            return ttScore;
+          }
         }
+      }
+      int alphaOrig = a;
+      int betaOrig = b;
+
+      int[] moves = new int[columnOrder.length];
+      int n = s.ordering.order(B, ttMove, safe, moves);
+
+      YbwNode[] children = new YbwNode[n];
+      int bestScore = isMaximizer ? -1_000_000_000 : 1_000_000_000;
+      int bestMove = -1;
+      for (int k = 0; k < n + n && b > a; k++) {
+        int x = moves[k % n];
         int score;
-        CXGameState status = B.markColumn(x);
-        if (status == yourWin) {
-          score = -1_000_000_000;
-        } else if (status == CXGameState.DRAW) {
-          score = 0;
+        if (k >= n) { // second pass: results of the younger brothers
+          YbwNode child = children[k - n];
+          if (child == null) {
+            continue;
+          }
+          score = child.join();
+          if (child.incomplete) {
+            return abort(children);
+          }
+        } else if (k == 0) { // eldest brother, searched alone on this board
+          CXGameState state = B.markColumn(x);
+          YbwNode child = new YbwNode(B, !isMaximizer, a, b, depth - 1, this);
+          score = state == CXGameState.OPEN ? child.compute() : terminalScore(state);
+          B.unmarkColumn();
+          if (child.incomplete) {
+            return abort(children);
+          }
         } else {
-          score = abprouning(B, true, alpha, beta, depth - 1);
+          CXBoard C = B.fork();
+          CXGameState state = C.markColumn(x);
+          if (state == CXGameState.OPEN) {
+            children[k] = new YbwNode(C, !isMaximizer, a, b, depth - 1, this);
+            children[k].fork();
+            continue;
+          }
+          score = terminalScore(state);
         }
-        B.unmarkColumn();
-        bestScore = Math.min(score, bestScore);
-        beta = Math.min(beta, bestScore);
-        // in questo ramo viene scelta la mossa con punteggio più basso
-        // quindi se nel turno prima (quello del maximizer)
-        // il valore massimo già trovato (alpha) è maggiore di beta appena calcolato
-        // posso subito scartare gli altri rami a questo livello
-        if (beta <= alpha) {
-          break;
+        if (bestMove < 0 || (isMaximizer ? score > bestScore : score < bestScore)) {
+          bestScore = score;
+          bestMove = x;
+        }
+        if (isMaximizer) {
+          a = Math.max(a, bestScore);
+        } else {
+          b = Math.min(b, bestScore);
         }
       }
+      if (b <= a) {
+        s.ordering.cutoff(B, bestMove, depth);
+        cancel(children); // the brothers still running are not needed
+      }
+      storeResult(hashBoard, bestScore, depth, alphaOrig, betaOrig, bestMove);
       return bestScore;
     }
 
+    private void cancel(YbwNode[] children) {
+      cut = true;
+      for (int k = 0; children != null && k < children.length; k++) {
+        if (children[k] != null) {
+          children[k].cancel(false);
+        }
+      }
+    }
+
+    private int abort(YbwNode[] children) {
+      cancel(children);
+      incomplete = true;
+      return 0;
+    }
+
+    private int terminalScore(CXGameState state) {
+      return state == myWin ? 1_000_000_000 : state == yourWin ? -1_000_000_000 : 0;
+    }
   }
 
-  private int evaluateCounts(int countPlayer, int countOpponent) {
-    if (countPlayer > 0 && countOpponent == 0) {
-      // Winning potential
-      return (int) Math.pow(10, countPlayer);
-    } else if (countPlayer == 0 && countOpponent > 0) {
-      // Losing potential
-      return -(int) Math.pow(10, countOpponent);
-    } else if (countPlayer > 0 && countOpponent > 0) {
-      // Both have potential, check who has the better potential
-      return (int) Math.pow(10, countPlayer) - (int) Math.pow(10, countOpponent);
-    } else {
-      // No one can win here, check positional advantage
-      int score = 0;
-      if (countPlayer > 0) {
-        score += Math.pow(2, countPlayer - 1);
+  /**
+   * Iterative deepening alpha-beta search on a board, run by one thread.
+   */
+  private final class Searcher implements Runnable {
+    private final int id;
+    private final int[] order; // column order, perturbed for the helpers
+    private final MoveOrder ordering;
+    private final int[][] moves; // ordered moves, by number of marked cells
+    private final int[] rootMoves; // root columns, best first after every iteration
+    private final int[] rootScores;
+    private int rootCount;
+    private CXBoard B;
+    private int completedDepth;
+    private int bestMove;
+    private int bestScore;
+    private boolean parallel; // root children searched by the fork/join pool
+    private YbwNode task; // task whose subtree is being searched serially
+    private long nodes;
+    private long evals;
+    private long ttProbes;
+    private long ttHits;
+    private long ttCutoffs;
+    private CXSearchStats stats; // receives the completed iterations, or null
+    private int polls; // nodes until the next poll of the deadline
+    private boolean aborted; // the search was cancelled: the results are not valid
+    private int searched; // root moves searched completely by the last root search
+
+    Searcher(int id) {
+      this.id = id;
+      this.order = columnOrder.clone();
+      this.rootMoves = new int[order.length];
+      this.rootScores = new int[order.length];
+      // helpers swap some adjacent columns so that they explore the tree in a
+      // different order and fill the table with different positions
+      Random r = new Random(id);
+      for (int k = 1; id > 0 && k + 1 < order.length; k++) {
+        if (r.nextBoolean()) {
+          int t = order[k];
+          order[k] = order[k + 1];
+          order[k + 1] = t;
+        }
       }
-      if (countOpponent > 0) {
-        score -= Math.pow(2, countOpponent - 1);
+      this.ordering = new MoveOrder(rows, order.length, order);
+      this.moves = new int[rows * order.length + 1][order.length];
+    }
+
+    // True once the search must stop: the deadline passed (the clock is read
+    // every few nodes), the search was cancelled or a cutoff made the
+    // parallel task useless
+    private boolean timeUp() {
+      if (!aborted && (deadline.isCancelled() || (++polls & (Deadline.POLL_INTERVAL - 1)) == 0
+          && (deadline.poll() || (task != null && task.aborted())))) {
+        aborted = true;
       }
+      return aborted;
+    }
+
+    // Nodes of this search so far, with the ones of the parallel search
+    private long searchedNodes() {
+      return this == searchers[0] ? searchNodes() : nodes;
+    }
+
+    private void resetCounters() {
+      nodes = evals = ttProbes = ttHits = ttCutoffs = 0;
+    }
 
+    private void addCounters(CXSearchStats S) {
+      S.count(nodes, evals, ttProbes, ttHits, ttCutoffs);
+    }
+
+    private int parallelSearch(boolean isMaximizer, int alpha, int beta, int depth) {
+      YbwNode root = new YbwNode(B.fork(), isMaximizer, alpha, beta, depth, null);
+      int score = pool().invoke(root);
+      aborted |= root.incomplete;
       return score;
     }
-  }
 
-  private int evaluation(CXBoard B, CXCell lastMove, int depth) throws TimeoutException {
-    int score = 0;
-    int rows = B.M;
-    int columns = B.N;
-    CXCellState player = (B.currentPlayer() == 0) ? CXCellState.P1 : CXCellState.P2;
-    CXCellState[][] board = B.getBoard();
-
-    checkTime();
-    // Evaluate rows
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column <= columns - B.X; column++) {
-        int countPlayer = 0;
-        int countOpponent = 0;
-
-        for (int k = 0; k < B.X; k++) {
-          CXCellState cell = board[row][column + k];
-          if (cell == player) {
-            countPlayer++;
-          } else if (cell != CXCellState.FREE) {
-            countOpponent++;
-          }
+    private void prepare() {
+      rootCount = 0;
+      for (int i : order) {
+        if (!B.fullColumn(i)) {
+          rootMoves[rootCount++] = i;
         }
-        score += evaluateCounts(countPlayer, countOpponent);
       }
+      completedDepth = 0;
+      bestMove = rootMoves[0];
+      bestScore = 0;
+      aborted = false;
     }
-    checkTime();
-    // Evaluate columns
-    for (int column = 0; column < columns; column++) {
-      for (int row = 0; row <= rows - B.X; row++) {
-        int countPlayer = 0;
-        int countOpponent = 0;
-
-        for (int k = 0; k < B.X; k++) {
-          CXCellState cell = board[row + k][column];
-          if (cell == player) {
-            countPlayer++;
-          } else if (cell != CXCellState.FREE) {
-            countOpponent++;
+
+    public void run() {
+      prepare();
+      long previousTime = 0;
+      // odd helpers start one ply deeper
+      for (int depth = 1 + (id & 1); depth <= B.numOfFreeCells(); depth++) {
+        long iterationStart = deadline.elapsed();
+        SearchEvents.Iteration event = new SearchEvents.Iteration();
+        event.begin();
+        int score = chooseMove(depth);
+        if (event.shouldCommit()) {
+          event.player = playerName();
+          event.thread = id;
+          event.depth = depth;
+          event.score = score;
+          event.nodes = searchedNodes();
+          event.elapsed = deadline.elapsed();
+          event.completed = !aborted;
+          event.commit();
+        }
+        if (aborted) {
+          if (stats != null) {
+            stats.setTimedOut();
+          }
+          // the root moves searched completely were sorted with the best first;
+          // the partial results of MTD(f) are only bounds
+          if (searched > 0 && search != Search.MTDF) {
+            bestMove = rootMoves[0];
           }
+          break;
+        }
+        completedDepth = depth;
+        bestMove = rootMoves[0];
+        bestScore = score;
+        if (stats != null) {
+          stats.completedDepth(depth, deadline.elapsed(), searchedNodes());
         }
-        score += evaluateCounts(countPlayer, countOpponent);
+        if (Math.abs(score) == 1_000_000_000) {
+          break; // forced win or loss
+        }
+
+        // the next iteration is expected to take as long as this one times the
+        // growth factor between the last two iterations
+        long time = deadline.elapsed() - iterationStart;
+        double growth = previousTime > 0 ? Math.max(2.0, (double) time / previousTime) : rootCount;
+        previousTime = Math.max(time, 1);
+        if (id == 0 && time * growth > deadline.remaining()) {
+          break;
+        }
+      }
+    }
+
+    // Searches the root moves at the given depth, sorts them by score and
+    // returns the best score
+    private int chooseMove(int depth) {
+      if (search == Search.MTDF) {
+        return mtdf(depth);
       }
+      return rootSearch(depth, -1_000_000_000, 1_000_000_000);
     }
 
-    checkTime();
-    // Evaluate diagonals (upward)
-    for (int row = 0; row <= rows - B.X; row++) {
-      for (int column = 0; column <= columns - B.X; column++) {
-        int countPlayer = 0;
-        int countOpponent = 0;
-
-        for (int k = 0; k < B.X; k++) {
-          CXCellState cell = board[row + k][column + k];
-          ;
-          if (cell == player) {
-            countPlayer++;
-          } else if (cell != CXCellState.FREE) {
-            countOpponent++;
+    // MTD(f): null window searches around a guess, the score of the previous
+    // iteration, narrow the bounds of the score until they meet. The
+    // transposition table keeps the bounds of the inner nodes between the
+    // searches.
+    private int mtdf(int depth) {
+      int g = completedDepth > 0 ? bestScore : 0;
+      int lower = -1_000_000_000;
+      int upper = 1_000_000_000;
+      int move = -1;
+      while (lower < upper) {
+        int beta = Math.max(g, lower + 1);
+        g = rootSearch(depth, beta - 1, beta);
+        if (aborted) {
+          return g;
+        } else if (g < beta) {
+          upper = g;
+        } else {
+          lower = g;
+          move = rootMoves[0];
+        }
+      }
+      // the best move is the one of the last search that failed high
+      if (move >= 0) {
+        int k = 0;
+        while (rootMoves[k] != move) {
+          k++;
+        }
+        System.arraycopy(rootMoves, 0, rootMoves, 1, k);
+        rootMoves[0] = move;
+      }
+      return g;
+    }
+
+    // Searches the root moves with the given window; the scores outside the
+    // window are bounds. If the search is cancelled only the moves searched
+    // completely are sorted.
+    private int rootSearch(int depth, int alpha, int beta) {
+      int bestScore = -1_000_000_000;
+      int n = rootCount;
+      for (int k = 0; k < rootCount; k++) {
+        int i = rootMoves[k];
+        int score;
+        SearchEvents.RootMove event = new SearchEvents.RootMove();
+        event.begin();
+        CXGameState state = B.markColumn(i);
+        if (state == myWin) {
+          score = 1_000_000_000;
+        } else if (state == CXGameState.DRAW) {
+          score = 0;
+        } else if (parallel) {
+          score = parallelSearch(false, alpha, beta, depth - 1);
+        } else if (search == Search.PVS && k > 0) {
+          score = abprouning(B, false, alpha, alpha + 1, depth - 1);
+          if (!aborted && score > alpha) {
+            score = abprouning(B, false, alpha, beta, depth - 1);
           }
+        } else {
+          score = abprouning(B, false, alpha, beta, depth - 1);
+        }
+        B.unmarkColumn();
+        if (event.shouldCommit()) {
+          event.player = playerName();
+          event.thread = id;
+          event.depth = depth;
+          event.column = i;
+          event.score = score;
+          event.nodes = searchedNodes();
+          event.elapsed = deadline.elapsed();
+          event.completed = !aborted;
+          event.commit();
+        }
+        if (aborted) {
+          n = k;
+          break;
+        }
+        rootScores[k] = score;
+        if (score > bestScore) {
+          bestScore = score;
+        }
+        alpha = Math.max(alpha, bestScore);
+        if (score == 1_000_000_000) {
+          rootCount = k + 1; // winning move: nothing else to search
+          n = rootCount;
+          break;
+        }
+        if (alpha >= beta) {
+          n = k + 1; // the moves not searched keep their place
+          break;
         }
-        score += evaluateCounts(countPlayer, countOpponent);
       }
+      sortRootMoves(n);
+      searched = n;
+      return bestScore;
     }
 
-    checkTime();
-    // Evaluate diagonals (downward)
-    for (int row = B.X - 1; row < rows; row++) {
-      for (int column = 0; column <= columns - B.X; column++) {
-        int countPlayer = 0;
-        int countOpponent = 0;
+    // Stable insertion sort of the first n root moves by decreasing score
+    private void sortRootMoves(int n) {
+      for (int k = 1; k < n; k++) {
+        int move = rootMoves[k];
+        int score = rootScores[k];
+        int h = k - 1;
+        while (h >= 0 && rootScores[h] < score) {
+          rootMoves[h + 1] = rootMoves[h];
+          rootScores[h + 1] = rootScores[h];
+          h--;
+        }
+        rootMoves[h + 1] = move;
+        rootScores[h + 1] = score;
+      }
+    }
+
+    // Returns 0 without storing anything once the search is cancelled
+    private int abprouning(CXBoard B, boolean isMaximizer, int alpha, int beta, int depth) {
+      if (timeUp()) {
+        return 0;
+      }
+      nodes++;
+      if (depth <= 0) {
+      return evaluation(B); // heuristic evaluation of the
+      // open board
+      }
+      // a move that wins at once needs no search; moves that let the opponent
+      // win at once are not searched (a threat forces the reply)
+      long safe = -1L;
+      if (B.N <= 64) {
+        if (B.winningColumns(B.currentPlayer()) != 0) {
+          return isMaximizer ? 1_000_000_000 : -1_000_000_000;
+        }
+        safe = B.nonLosingColumns();
+        if (safe == 0) {
+          return isMaximizer ? -1_000_000_000 : 1_000_000_000;
+        }
+      }
+      // scores are always from our point of view, so the bounds stored by the
+      // maximizer and by the minimizer have the same meaning
+      long hashBoard = B.hashKey();
+      long entry = transpositionTable.probe(hashBoard);
+      ttProbes++;
+      int ttMove = -1;
+      if (entry != 0) {
+        ttHits++;
+        ttMove = TranspositionTable.move(entry);
+        if (TranspositionTable.depth(entry) >= depth) {
+          int ttScore = TranspositionTable.score(entry);
+          int flag = TranspositionTable.flag(entry);
+          if (flag == TranspositionTable.EXACT) {
+            ttCutoffs++;
+            return ttScore;
+          } else if (flag == TranspositionTable.LOWER) {
+            alpha = Math.max(alpha, ttScore);
+          } else {
+            beta = Math.min(beta, ttScore);
+          }
+          if (beta <= alpha) {
+            ttCutoffs++;
+            return ttScore;
+          }
+        }
+      }
+      int alphaOrig = alpha;
+      int betaOrig = beta;
+      int bestMove = -1;
+      // the best move of a previous search is tried first, then the killer
+      // moves and the others by history, all among the safe ones
+      int[] buffer = moves[B.numOfMarkedCells()];
+      int n = ordering.order(B, ttMove, safe, buffer);
 
-        for (int k = 0; k < B.X; k++) {
-          CXCellState cell = board[row - k][column + k];
-          if (cell == player) {
-            countPlayer++;
-          } else if (cell != CXCellState.FREE) {
-            countOpponent++;
+      if (isMaximizer) {
+        int bestScore = -1_000_000_000;
+        for (int k = 0; k < n; k++) {
+          int x = buffer[k];
+          int score;
+          CXGameState status = B.markColumn(x);
+          if (status == myWin) {
+            score = 1_000_000_000;
+          } else if (status == CXGameState.DRAW) {
+            score = 0;
+          } else if (search == Search.PVS && bestMove >= 0) {
+            // the first move is expected to be the best: the others are only
+            // proved worse with a null window, and searched again if they are not
+            score = abprouning(B, false, alpha, alpha + 1, depth - 1);
+            if (!aborted && score > alpha && score < beta) {
+              score = abprouning(B, false, alpha, beta, depth - 1);
+            }
+          } else {
+            score = abprouning(B, false, alpha, beta, depth - 1);
+          }
+          B.unmarkColumn();
+          if (aborted) {
+            return 0;
+          }
+          if (bestMove < 0 || score > bestScore) {
+            bestScore = score;
+            bestMove = x;
+          }
+          alpha = Math.max(alpha, bestScore);
+          // in questo ramo viene scelta la mossa con punteggio più alto
+          // quindi se nel turno prima (quello del minimizer)
+          // il valore minimo già trovato (beta) è inferiore ad alpha appena calcolato
+          // posso subito scartare gli altri rami a questo livello
+          if (beta <= alpha) {
+            ordering.cutoff(B, x, depth);
+            break;
           }
         }
-        score += evaluateCounts(countPlayer, countOpponent);
+        storeResult(hashBoard, bestScore, depth, alphaOrig, betaOrig, bestMove);
+        return bestScore;
+      } else { // minimizer
+        int bestScore = 1_000_000_000;
+        for (int k = 0; k < n; k++) {
+          int x = buffer[k];
+          int score;
+          CXGameState status = B.markColumn(x);
+          if (status == yourWin) {
+            score = -1_000_000_000;
+          } else if (status == CXGameState.DRAW) {
+            score = 0;
+          } else if (search == Search.PVS && bestMove >= 0) {
+            score = abprouning(B, true, beta - 1, beta, depth - 1);
+            if (!aborted && score > alpha && score < beta) {
+              score = abprouning(B, true, alpha, beta, depth - 1);
+            }
+          } else {
+            score = abprouning(B, true, alpha, beta, depth - 1);
+          }
+          B.unmarkColumn();
+          if (aborted) {
+            return 0;
+          }
+          if (bestMove < 0 || score < bestScore) {
+            bestScore = score;
+            bestMove = x;
+          }
+          beta = Math.min(beta, bestScore);
+          // in questo ramo viene scelta la mossa con punteggio più basso
+          // quindi se nel turno prima (quello del maximizer)
+          // il valore massimo già trovato (alpha) è maggiore di beta appena calcolato
+          // posso subito scartare gli altri rami a questo livello
+          if (beta <= alpha) {
+            ordering.cutoff(B, x, depth);
+            break;
+          }
+        }
+        storeResult(hashBoard, bestScore, depth, alphaOrig, betaOrig, bestMove);
+        return bestScore;
       }
+
+    }
+
+    private int evaluation(CXBoard B) {
+      evals++;
+      // Every window of X cells (rows, columns and diagonals) is scored by the
+      // number of cells of each player it holds: the board keeps the sum of
+      // the lineScores up to date as the moves are marked and unmarked
+      return (int) B.lineValue();
     }
-    return score;
   }
 
   public String playerName() {
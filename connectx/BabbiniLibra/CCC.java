@@ -1,24 +1,70 @@
 package connectx.BabbiniLibra;
 
-import java.util.HashMap;
 import java.util.Random;
-import java.util.concurrent.TimeoutException;
 
 import connectx.CXBoard;
 import connectx.CXGameState;
 import connectx.CXPlayer;
+import connectx.CXSearchStats;
 
-public class CCC implements CXPlayer {
+/**
+ * Exact solver: negamax with alpha-beta on the game score.
+ * <p>
+ * The score of a position is positive if the player to move wins, negative if
+ * it loses and 0 for a draw; the sooner the win, the larger the score (half
+ * the free cells left after the winning move, plus one). The transposition
+ * table keeps an upper bound of the positions already solved: on boards with
+ * at most 64 bits of bitboard, (M + 1) * N, the key is the position itself
+ * (the cells of the player to move plus the occupied cells, which also encode
+ * the column heights), on larger boards it is the Zobrist key.
+ * </p>
+ * <p>
+ * The children of a node are tried by decreasing number of threats they
+ * create (cells that would complete a line of the player), then by history.
+ * Every root column can be solved with the full window, or by a binary search
+ * on its score made of null window searches, which cut much more; the weak
+ * solver only tells wins, draws and losses apart.
+ * </p>
+ */
+public class CCC implements CXPlayer, CXSearchStats.Provider {
   private Random rand;
   private CXGameState myWin;
   private CXGameState yourWin;
   private int TIMEOUT;
-  private long START;
+  private Deadline deadline;
+  private boolean aborted; // the time ran out: the scores are not valid
+  private long nodes; // visited by the current search
+  private long ttProbes;
+  private long ttHits;
+  private long ttCutoffs;
+  private CXSearchStats stats; // of the last selectColumn call
   private long TOTALTIME;
   private int TOTALMOVES;
   private int BESTMOVETMP;
-  private Integer[] columnOrder;
-  private HashMap<Integer, Integer> transpositionTable;
+  private int[] columnOrder;
+  private MoveOrder ordering;
+  private int[][] moves; // ordered moves, by number of marked cells
+  private int[][] threats; // threats created by the ordered moves
+  private SolverTable transpositionTable;
+  private int tableM, tableN, tableK; // board of the positions in the table
+  private boolean compactKeys; // positions as keys: the board fits in one word
+  private int minScore; // lowest score, stored as 1 in the table
+
+  // Transposition table size, -Dccc.tt.mb=<megabytes>
+  private static final int TT_SIZE_MB = Integer.getInteger("ccc.tt.mb", 64);
+
+  /** Ways of solving the root columns. */
+  enum Solve {
+    /** One search with the full window of the possible scores. */
+    WINDOW,
+    /** Binary search on the exact score with null window searches. */
+    STRONG,
+    /** Binary search on the sign of the score only: win, draw or loss. */
+    WEAK
+  }
+
+  // Solver, -Dccc.solve=window|strong|weak
+  private static final Solve SOLVE = Solve.valueOf(System.getProperty("ccc.solve", "strong").toUpperCase());
 
   public String playerName() {
     return "Niggamax";
@@ -32,109 +78,305 @@ public class CCC implements CXPlayer {
     TIMEOUT = timeout_in_secs;
     TOTALMOVES = 0;
     TOTALTIME = 0;
-    columnOrder = new Integer[N];
-    transpositionTable = new HashMap<>();
+    columnOrder = new int[N];
+    stats = null;
+    // the bounds do not depend on the game: they are kept for the next games
+    // on the same board
+    if (transpositionTable == null) {
+      transpositionTable = new SolverTable(TT_SIZE_MB);
+    } else if (M != tableM || N != tableN || K != tableK) {
+      transpositionTable.clear();
+    }
+    tableM = M;
+    tableN = N;
+    tableK = K;
+    compactKeys = (M + 1) * N <= 64;
+    minScore = -(M * N) / 2;
     for (int i = 0; i < N; i++) {
       columnOrder[i] = N / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2; // inizializza l'ordine delle colonne partendo dal
                                                                 // centro
     }
+    ordering = new MoveOrder(M, N, columnOrder);
+    moves = new int[M * N + 1][N];
+    threats = new int[M * N + 1][N];
   }
 
   /**
    * Selects a free colum on game board.
    * <p>
-   * Selects a winning column (if any), otherwise selects a column (if any)
-   * that prevents the adversary to win with his next move. If both previous
-   * cases do not apply, selects a random column.
+   * Solves every column and selects the one with the best score. If the time
+   * runs out (or the thread is interrupted) before all the columns are
+   * solved, selects the best one among those solved; if none was, a column
+   * that does not let the adversary win with his next move.
    * </p>
    */
   public int selectColumn(CXBoard B) {
-    START = System.currentTimeMillis(); // Save starting time
+    deadline = Deadline.forMove(TIMEOUT); // Save starting time
+    aborted = false;
+    nodes = ttProbes = ttHits = ttCutoffs = 0;
+    stats = new CXSearchStats();
     Integer[] L = B.getAvailableColumns();
     BESTMOVETMP = L[0];
+    ordering.newSearch();
 
-    try {
-      int move = chooseMove(B, L);
-      B.markColumn(move);
-      // if(TOTALMOVES ==0){
-      //   TOTALTIME = System.currentTimeMillis() - START;
-      //   System.out.println(TOTALTIME);
-        
-      // }
-      TOTALMOVES++;
-      return move;
-    } catch (TimeoutException e) {
-      return BESTMOVETMP;
-    }
+    int move = chooseMove(B, L);
+    stats.count(nodes, 0, ttProbes, ttHits, ttCutoffs);
+    stats.setTime(deadline.elapsed());
+    stats.setPrincipalVariation(new int[] { move });
+    B.markColumn(move);
+    // if(TOTALMOVES ==0){
+    //   TOTALTIME = deadline.elapsed();
+    //   System.out.println(TOTALTIME);
+      
+    // }
+    TOTALMOVES++;
+    return move;
+  }
 
+  public CXSearchStats lastSearchStats() {
+    return stats;
   }
 
-  private Integer chooseMove(CXBoard B, Integer[] L) throws TimeoutException {
+  private Integer chooseMove(CXBoard B, Integer[] L) {
     int bestScore = -B.N * B.M;
     int beta = (B.N * B.M - 1 - B.numOfMarkedCells()) / 2;
     int alpha = -(B.N * B.M - 1 - B.numOfMarkedCells()) / 2;
     int move = L[0];
+    if (B.N <= 64) {
+      // a winning column needs no search; until a column is solved the first
+      // one that does not lose at once is played
+      long win = B.winningColumns(B.currentPlayer());
+      long safe = B.nonLosingColumns();
+      for (int i = columnOrder.length - 1; i >= 0; i--) {
+        int x = columnOrder[i];
+        if ((win >>> x & 1) != 0) {
+          return x;
+        } else if ((safe >>> x & 1) != 0) {
+          move = x;
+        }
+      }
+      BESTMOVETMP = move;
+    }
+    // the whole game tree is solved in one iteration
+    SearchEvents.Iteration iteration = new SearchEvents.Iteration();
+    iteration.begin();
     for (int i : columnOrder) {
       if (B.fullColumn(i)) {
         continue;
       }
-      // checkTime();
+      SearchEvents.RootMove event = new SearchEvents.RootMove();
+      event.begin();
       CXGameState state = B.markColumn(i);
       if (state == myWin) {
         B.unmarkColumn();
+        bestScore = (B.N * B.M + 1 - B.numOfMarkedCells()) / 2;
+        commit(event, B, i, bestScore);
+        commit(iteration, B, bestScore);
         return i;
       }
-      int score = -negamax(B, -beta, -alpha);
+      int score;
+      if (SOLVE == Solve.WINDOW) {
+        score = -negamax(B, -beta, -alpha);
+      } else {
+        // bounds of the score of the opponent; only a better column than the
+        // best one so far needs its exact score
+        int min = SOLVE == Solve.WEAK ? -1 : -(B.N * B.M - B.numOfMarkedCells()) / 2;
+        int max = SOLVE == Solve.WEAK ? 1 : (B.N * B.M + 1 - B.numOfMarkedCells()) / 2;
+        if (bestScore > -B.N * B.M) {
+          max = Math.min(max, -bestScore);
+        }
+        score = -solve(B, min, max);
+      }
       B.unmarkColumn();
+      commit(event, B, i, score);
+      if (aborted) {
+        break; // the best column solved so far is played
+      }
       if (score > bestScore) {
         bestScore = score;
         move = i;
         BESTMOVETMP = i;
       }
+      if (SOLVE == Solve.WEAK && bestScore > 0) {
+        break; // a win is enough
+      }
 
       // System.out.println("Column " + i + " Score " + score);
     }
     // System.out.println("Best column " + move + " Best score " + bestScore);
     // System.out.println();
+    commit(iteration, B, bestScore);
+    if (aborted) {
+      stats.setTimedOut();
+      return BESTMOVETMP;
+    }
+    stats.completedDepth(B.numOfFreeCells(), deadline.elapsed(), nodes);
     return move;
   }
 
+  private void commit(SearchEvents.Iteration event, CXBoard B, int score) {
+    if (event.shouldCommit()) {
+      event.player = playerName();
+      event.depth = B.numOfFreeCells();
+      event.score = score;
+      event.nodes = nodes;
+      event.elapsed = deadline.elapsed();
+      event.completed = !aborted;
+      event.commit();
+    }
+  }
+
+  private void commit(SearchEvents.RootMove event, CXBoard B, int column, int score) {
+    if (event.shouldCommit()) {
+      event.player = playerName();
+      event.depth = B.numOfFreeCells();
+      event.column = column;
+      event.score = score;
+      event.nodes = nodes;
+      event.elapsed = deadline.elapsed();
+      event.completed = !aborted;
+      event.commit();
+    }
+  }
+
+  // Returns 0 without storing anything once the time is over
   private int negamax(CXBoard B, int alpha, int beta) {
+    if (aborted || (++nodes & (Deadline.POLL_INTERVAL - 1)) == 0 && deadline.poll()) {
+      aborted = true;
+      return 0;
+    }
     CXGameState state = B.gameState();
     if (state == CXGameState.DRAW) { // check for draw game
       return 0;
     }
-    for (int x : columnOrder) { // check if current player can win next move
-      if (!B.fullColumn(x)) {
-        CXGameState move = B.markColumn(x);
-        B.unmarkColumn();
-        if (move == myWin || move == yourWin) {
+    long safe = -1L; // columns that do not let the opponent win at once
+    if (B.N <= 64) {
+      if (B.winningColumns(B.currentPlayer()) != 0) { // check if current player can win next move
+        return (B.N * B.M + 1 - B.numOfMarkedCells()) / 2;
+      }
+      safe = B.nonLosingColumns();
+      if (safe == 0) { // every move lets the opponent win
+        return -(B.N * B.M - B.numOfMarkedCells()) / 2;
+      }
+      int min = -(B.N * B.M - 2 - B.numOfMarkedCells()) / 2; // the opponent cannot win at once
+      if (alpha < min) {
+        alpha = min;
+        if (alpha >= beta) {
+          return alpha;
+        }
+      }
+    } else {
+      for (int x : columnOrder) { // check if current player can win next move
+        if (B.isWinningColumn(B.currentPlayer(), x)) {
           return (B.N * B.M + 1 - B.numOfMarkedCells()) / 2;
         }
       }
     }
     int max = (B.N * B.M - 1 - B.numOfMarkedCells()) / 2;
+    long key = positionKey(B);
+    int bound = probe(key);
+    if (bound != 0) {
+      max = Math.min(max, bound + minScore - 1); // upper bound of a previous search
+    }
     if (beta > max) {
       beta = max;
       if (alpha >= beta) {
+        if (bound != 0) {
+          ttCutoffs++;
+        }
         return beta;
       }
     }
-    for (int x = 0; x < B.N; x++) { // compute the score of all possible next move and keep the best one
-      if (!B.fullColumn(x)) {
-        B.markColumn(x);
-        int score = -negamax(B, -beta, -alpha); // If current player plays col x, his score will be the opposite of the
-                                                // other
-        // player
-        B.unmarkColumn();
-        if (score >= beta) {
-          return score;
-        }
-        if (score > alpha) {
-          alpha = score;
-        }
+    // the columns creating more threats first, then killer moves and the
+    // other columns by history, all among the safe ones
+    int[] buffer = moves[B.numOfMarkedCells()];
+    int n = ordering.order(B, -1, safe, buffer);
+    sortByThreats(B, buffer, threats[B.numOfMarkedCells()], n);
+    for (int k = 0; k < n; k++) { // compute the score of all possible next move and keep the best one
+      int x = buffer[k];
+      B.markColumn(x);
+      int score = -negamax(B, -beta, -alpha); // If current player plays col x, his score will be the opposite of the
+                                              // other
+      // player
+      B.unmarkColumn();
+      if (aborted) {
+        return 0;
+      }
+      if (score >= beta) {
+        ordering.cutoff(B, x, B.numOfFreeCells());
+        return score;
       }
+      if (score > alpha) {
+        alpha = score;
+      }
+    }
+    // no column scored more than alpha: alpha is an upper bound of the score
+    if (alpha - minScore + 1 <= Short.MAX_VALUE) {
+      transpositionTable.put(key, alpha - minScore + 1);
     }
     return alpha;
   }
+
+  // Score of the position if it is between min and max, found by a binary
+  // search made of null window searches: min if the score is lower, max if
+  // it is higher
+  private int solve(CXBoard B, int min, int max) {
+    while (min < max) {
+      int med = min + (max - min) / 2;
+      // the probes start close to 0, where most games end
+      if (med <= 0 && min / 2 < med) {
+        med = min / 2;
+      } else if (med >= 0 && max / 2 > med) {
+        med = max / 2;
+      }
+      int r = negamax(B, med, med + 1);
+      if (aborted) {
+        break;
+      }
+      if (r <= med) {
+        max = r;
+      } else {
+        min = r;
+      }
+    }
+    return min;
+  }
+
+  // Stable insertion sort of the first n moves by decreasing number of threats
+  // of the current player after the move
+  private void sortByThreats(CXBoard B, int[] moves, int[] scores, int n) {
+    int p = B.currentPlayer();
+    for (int k = 0; k < n; k++) {
+      int x = moves[k];
+      B.markColumn(x);
+      int t = B.numOfWinningCells(p);
+      B.unmarkColumn();
+      int h = k;
+      while (h > 0 && scores[h - 1] < t) {
+        moves[h] = moves[h - 1];
+        scores[h] = scores[h - 1];
+        h--;
+      }
+      moves[h] = x;
+      scores[h] = t;
+    }
+  }
+
+  private int probe(long key) {
+    ttProbes++;
+    int bound = transpositionTable.get(key);
+    if (bound != 0) {
+      ttHits++;
+    }
+    return bound;
+  }
+
+  // The position itself on small boards: the cells of the player to move plus
+  // the occupied cells, a unique number since every column adds 2^height - 1
+  private long positionKey(CXBoard B) {
+    if (compactKeys) {
+      return B.playerMask(B.currentPlayer(), 0) + B.occupancyMask(0);
+    }
+    return B.hashKey();
+  }
 }
@@ -0,0 +1,82 @@
+package connectx.BabbiniLibra;
+
+/**
+ * Time limit and cancellation of a search, shared by all its threads.
+ * <p>
+ * Reading the clock at every node costs several percent of the search time,
+ * so the searches call {@link #isCancelled} (a volatile read) at every node
+ * and {@link #poll} only every {@link #POLL_INTERVAL} nodes. Polling also
+ * checks the interrupt status of the calling thread: when the tester gives up
+ * on a move and interrupts the player, the search stops at the next poll
+ * instead of running on into the next game.
+ * </p>
+ * <p>
+ * A cancelled search does not throw: it returns at once, and the caller
+ * keeps the best result found so far.
+ * </p>
+ */
+public final class Deadline {
+  /** Nodes between two polls of the clock, a power of two */
+  public static final int POLL_INTERVAL = 1024;
+
+  // Fraction of the timeout of a move the search can use, the rest is left
+  // for the player to return the column
+  private static final double TIME_SHARE = 90.0 / 100.0;
+
+  private final long start;
+  private final long end;
+  private volatile boolean cancelled;
+
+  /**
+   * Starts the clock.
+   *
+   * @param budgetNanos time available to the search, in nanoseconds
+   */
+  public Deadline(long budgetNanos) {
+    start = System.nanoTime();
+    end = start + Math.min(budgetNanos, Long.MAX_VALUE / 2);
+  }
+
+  /**
+   * Starts the clock of a move, with the share of its timeout that the
+   * players give to the search.
+   *
+   * @param timeoutSecs timeout of the move, in seconds
+   */
+  public static Deadline forMove(int timeoutSecs) {
+    return new Deadline((long) (timeoutSecs * 1_000_000_000L * TIME_SHARE));
+  }
+
+  /** Stops every search sharing this deadline */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /** Checks whether the search must stop, without reading the clock */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Reads the clock and the interrupt status of the calling thread, and
+   * cancels the search if the time is over or the thread was interrupted.
+   *
+   * @return true if the search must stop
+   */
+  public boolean poll() {
+    if (!cancelled && (System.nanoTime() - end >= 0 || Thread.currentThread().isInterrupted())) {
+      cancelled = true;
+    }
+    return cancelled;
+  }
+
+  /** Nanoseconds since the search started */
+  public long elapsed() {
+    return System.nanoTime() - start;
+  }
+
+  /** Nanoseconds left to the search (negative once the time is over) */
+  public long remaining() {
+    return end - System.nanoTime();
+  }
+}
@@ -0,0 +1,331 @@
+package connectx.BabbiniLibra;
+
+import connectx.CXBoard;
+import connectx.CXCell;
+import connectx.CXCellState;
+import connectx.CXGameState;
+import connectx.CXGeometry;
+
+/**
+ * Monte Carlo Tree Search player (UCT).
+ * <p>
+ * Every simulation descends the tree choosing the child with the best upper
+ * confidence bound, adds the children of the leaf it reaches, plays a random
+ * game from one of them and counts the result in the nodes of its path. The
+ * column played is the most visited child of the root. The search uses all
+ * the time of the move.
+ * </p>
+ * <p>
+ * The tree is kept in arrays indexed by node, allocated once: the children of
+ * a node are contiguous. Several threads run simulations on their own boards;
+ * the tree is updated under a lock, while the random games, which take most
+ * of the time, run in parallel. A simulation counts its visit as soon as it
+ * goes through a node and its result only at the end (virtual loss), so that
+ * the other threads spread over other paths in the meantime.
+ * </p>
+ * <p>
+ * The random games play a winning column when there is one and otherwise
+ * avoid the columns that let the opponent win at once (on boards up to 64
+ * columns); the nodes are expanded with the same columns.
+ * </p>
+ * <p>
+ * The tree survives the move: when the board of the next call is the
+ * position after the column played plus one move of the opponent (same move
+ * count, same hash key before the last move), the node of that position
+ * becomes the root and keeps its simulations. The nodes that are no longer
+ * reachable are dropped by compacting the arrays in place, so the memory is
+ * allocated once and used by all the games of the player.
+ * </p>
+ */
+public class MonteCarlo extends MonteCarloSearch {
+  private static final byte OPEN = 0;
+  private static final byte WIN = 1; // the player who moved into the node won
+  private static final byte DRAW = 2;
+
+  // Tree size, -Dbabbinilibra.mcts.nodes=<nodes>
+  private static final int NODES = Integer.getInteger("babbinilibra.mcts.nodes", 1 << 21);
+
+  // the tree: node 0 is the root, the children of a node are contiguous
+  private int[] first; // first child, -1 if the node was not expanded
+  private int[] count; // number of children
+  private int[] column; // column of the move into the node
+  private int[] visits;
+  private int[] score; // results of the player who moved into the node, 2 per win and 1 per draw
+  private byte[] state; // OPEN, or the end of the game after the move into the node
+  private int size; // nodes in use
+  private int[] remap; // new index of every node during a compaction, -1 if dropped
+
+  // the position after the last column played, to find the next root
+  private int playedColumn = -1; // -1 when the tree cannot be reused
+  private int playedMarked; // marked cells after the column
+  private long playedKey; // hash key after the column
+
+  /* Default empty constructor */
+  public MonteCarlo() {
+  }
+
+  public String playerName() {
+    return "Monte-Carlo";
+  }
+
+  void initNodes(int M, int N, int K) {
+    if (first == null) {
+      first = new int[NODES];
+      count = new int[NODES];
+      column = new int[NODES];
+      visits = new int[NODES];
+      score = new int[NODES];
+      state = new byte[NODES];
+      remap = new int[NODES];
+    }
+    playedColumn = -1; // new game: the tree of the last one is useless
+  }
+
+  int newRoot(CXBoard B) {
+    int reused = reuseTree(B);
+    if (reused < 0) {
+      newTree();
+    }
+    if (first[0] < 0) {
+      expand(0, B);
+    }
+    return Math.max(reused, 0);
+  }
+
+  int rootVisits() {
+    return visits[0];
+  }
+
+  Worker newWorker(int cells, int id) {
+    return new TreeWorker(cells, id);
+  }
+
+  int bestColumn(CXBoard B) {
+    return column[bestChild(0)];
+  }
+
+  void endSearch(CXBoard B, int col) {
+    int best = child(0, col);
+    stats.setPrincipalVariation(principalVariation());
+    stats.setValue(score[best] / (2.0 * Math.max(visits[best], 1)));
+    playedColumn = col;
+    playedMarked = B.numOfMarkedCells() + 1;
+    playedKey = B.hashKeyAfter(playedColumn);
+  }
+
+  private void newTree() {
+    size = 1;
+    first[0] = -1;
+    count[0] = 0;
+    column[0] = -1;
+    visits[0] = 0;
+    score[0] = 0;
+    state[0] = OPEN;
+  }
+
+  // Makes the node of the position on B the root, if the position follows the
+  // last column played by one move of the opponent and the node is in the
+  // tree, and returns the simulations it keeps; -1 if the tree is not reused.
+  // B is not modified: it may be a fork, which cannot undo its last move.
+  private int reuseTree(CXBoard B) {
+    CXCell last = B.getLastMove();
+    if (playedColumn < 0 || last == null || B.numOfMarkedCells() != playedMarked + 1) {
+      return -1;
+    }
+    CXGeometry G = B.geometry();
+    long before = B.hashKey() ^ G.zobrist(last.state == CXCellState.P1 ? 0 : 1, G.bit(last.i, last.j));
+    int v = before == playedKey ? child(0, playedColumn) : -1;
+    v = v >= 0 ? child(v, last.j) : -1;
+    if (v < 0 || state[v] != OPEN) {
+      return -1;
+    }
+    compact(v);
+    return visits[0];
+  }
+
+  // Child of node v for a column, -1 if there is none
+  private int child(int v, int x) {
+    for (int c = first[v]; c >= 0 && c < first[v] + count[v]; c++) {
+      if (column[c] == x) {
+        return c;
+      }
+    }
+    return -1;
+  }
+
+  // Keeps only the subtree of node r, which becomes the root. A child always
+  // comes after its parent and the children of a node are kept or dropped
+  // together, so the nodes kept can slide down in their order: every node
+  // moves to a lower index, and the blocks of children stay contiguous.
+  private void compact(int r) {
+    for (int v = r; v < size; v++) {
+      remap[v] = -1;
+    }
+    remap[r] = 0;
+    for (int v = r; v < size; v++) {
+      if (remap[v] >= 0 && first[v] >= 0) {
+        for (int c = first[v]; c < first[v] + count[v]; c++) {
+          remap[c] = 0;
+        }
+      }
+    }
+    int n = 0;
+    for (int v = r; v < size; v++) {
+      if (remap[v] >= 0) {
+        remap[v] = n++;
+      }
+    }
+    for (int v = r; v < size; v++) {
+      int k = remap[v];
+      if (k >= 0) {
+        first[k] = first[v] >= 0 ? remap[first[v]] : -1;
+        count[k] = count[v];
+        column[k] = column[v];
+        visits[k] = visits[v];
+        score[k] = score[v];
+        state[k] = state[v];
+      }
+    }
+    column[0] = -1;
+    size = n;
+  }
+
+  // Adds the children of node v, whose position is on B (under the lock, once
+  // the simulations started).
+  // With a winning column only that one is added; otherwise the columns that
+  // do not let the opponent win at once, if any.
+  private void expand(int v, CXBoard B) {
+    long cols = candidates(B);
+    int n = 0;
+    for (int x = 0; x < B.N; x++) {
+      if (cols == -1L ? !B.fullColumn(x) : (cols >>> x & 1) != 0) {
+        n++;
+      }
+    }
+    if (size + n > first.length) {
+      return; // the tree is full: the leaf stays a leaf
+    }
+    first[v] = size;
+    count[v] = n;
+    for (int x = 0; x < B.N; x++) {
+      if (cols == -1L ? !B.fullColumn(x) : (cols >>> x & 1) != 0) {
+        int c = size++;
+        first[c] = -1;
+        count[c] = 0;
+        column[c] = x;
+        visits[c] = 0;
+        score[c] = 0;
+        CXGameState s = B.markColumn(x);
+        state[c] = s == CXGameState.OPEN ? OPEN : s == CXGameState.DRAW ? DRAW : WIN;
+        B.unmarkColumn();
+      }
+    }
+  }
+
+  // Child with the best upper confidence bound; the children not visited yet first
+  private int selectChild(int v) {
+    double logN = Math.log(Math.max(visits[v], 1));
+    int best = first[v];
+    double bestValue = Double.NEGATIVE_INFINITY;
+    for (int c = first[v]; c < first[v] + count[v]; c++) {
+      if (visits[c] == 0) {
+        return c;
+      }
+      double value = score[c] / (2.0 * visits[c]) + C * Math.sqrt(logN / visits[c]);
+      if (value > bestValue) {
+        bestValue = value;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  // Most visited child of node v
+  private int bestChild(int v) {
+    int best = first[v];
+    for (int c = first[v]; c < first[v] + count[v]; c++) {
+      if (visits[c] > visits[best]) {
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  // Most visited path from the root, through nodes visited at least twice
+  private int[] principalVariation() {
+    int[] pv = new int[64];
+    int n = 0;
+    for (int v = 0; first[v] >= 0 && n < pv.length;) {
+      v = bestChild(v);
+      if (n > 0 && visits[v] < 2) {
+        break;
+      }
+      pv[n++] = column[v];
+    }
+    return java.util.Arrays.copyOf(pv, n);
+  }
+
+  /**
+   * Runs simulations on its own board, descending the tree.
+   */
+  private final class TreeWorker extends Worker {
+    private final int[] path; // nodes of the current simulation, from the root
+
+    TreeWorker(int cells, int id) {
+      super(id);
+      this.path = new int[cells + 1];
+    }
+
+    void simulate() {
+      int rootPlayer = B.currentPlayer();
+      int n = select();
+      int leaf = path[n - 1];
+      int winner; // 0, 1, or -1 for a draw
+      if (state[leaf] == WIN) {
+        winner = (rootPlayer + n - 2) & 1; // the player who moved into the leaf
+      } else if (state[leaf] == DRAW) {
+        winner = -1;
+      } else {
+        winner = rollout(B, random);
+        rollouts++;
+      }
+      synchronized (MonteCarlo.this) {
+        for (int i = 1; i < n; i++) {
+          int mover = (rootPlayer + i - 1) & 1;
+          score[path[i]] += winner == mover ? 2 : winner < 0 ? 1 : 0;
+        }
+      }
+      for (int i = 1; i < n; i++) {
+        B.unmarkColumn();
+      }
+      depth = Math.max(depth, n - 1);
+    }
+
+    // Descends the tree marking the columns on B, expands the leaf and
+    // returns the length of the path; every node of the path is visited
+    private int select() {
+      synchronized (MonteCarlo.this) {
+        int v = 0;
+        int n = 0;
+        path[n++] = v;
+        visits[v]++;
+        while (state[v] == OPEN) {
+          if (first[v] < 0) {
+            if (visits[v] < 2 && v != 0) {
+              break; // expanded from its second visit on
+            }
+            expand(v, B);
+            if (first[v] < 0) {
+              break;
+            }
+          }
+          v = selectChild(v);
+          B.markColumn(column[v]);
+          path[n++] = v;
+          visits[v]++;
+        }
+        return n;
+      }
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package connectx.BabbiniLibra;
+
+import connectx.CXBoard;
+import connectx.CXGameState;
+
+/**
+ * Monte Carlo Tree Search player on the graph of the positions (UCT on a
+ * directed acyclic graph).
+ * <p>
+ * The simulations run as in {@link MonteCarlo}, but the nodes are positions
+ * stored in a {@link NodeTable} by Zobrist key instead of moves in a tree: the
+ * transpositions share their visits and results, and the children of a node
+ * are found by the keys of the positions after each column
+ * (<code>CXBoard.hashKeyAfter</code>). A simulation adds one position, the
+ * first one of its path not in the table, and plays a random game from it.
+ * </p>
+ * <p>
+ * The table keeps the positions of the previous moves and games on the same
+ * board: the root of the next move is already there, with the simulations
+ * that went through it. Its size is set with -Dbabbinilibra.mcts.mb; when it
+ * is full the least visited and least recently used positions are replaced.
+ * </p>
+ */
+public class MonteCarloDag extends MonteCarloSearch {
+  // Node table size, -Dbabbinilibra.mcts.mb=<megabytes>
+  private static final int TABLE_MB = Integer.getInteger("babbinilibra.mcts.mb", 64);
+
+  private NodeTable table;
+  private int tableM, tableN, tableK; // board of the positions in the table
+  private long rootKey;
+  private long probes; // table lookups of the current search
+  private long hits;
+
+  /* Default empty constructor */
+  public MonteCarloDag() {
+  }
+
+  public String playerName() {
+    return "Monte-Carlo-DAG";
+  }
+
+  void initNodes(int M, int N, int K) {
+    // the results of a position do not depend on the game: they are kept for
+    // the next games on the same board
+    if (table == null) {
+      table = new NodeTable(TABLE_MB);
+    } else if (M != tableM || N != tableN || K != tableK) {
+      table.clear();
+    }
+    tableM = M;
+    tableN = N;
+    tableK = K;
+  }
+
+  int newRoot(CXBoard B) {
+    table.newSearch();
+    probes = hits = 0;
+    rootKey = B.hashKey();
+    if (table.find(rootKey) < 0) {
+      table.insert(rootKey, NodeTable.OPEN, rootKey);
+    }
+    return table.visits(table.find(rootKey));
+  }
+
+  int rootVisits() {
+    int root = table.find(rootKey);
+    return root >= 0 ? table.visits(root) : 0;
+  }
+
+  Worker newWorker(int cells, int id) {
+    return new GraphWorker(cells, id);
+  }
+
+  void endSearch(CXBoard B, int column) {
+    stats.count(0, 0, probes, hits, 0);
+    stats.setPrincipalVariation(principalVariation(B.fork(), column));
+    int slot = table.find(B.hashKeyAfter(column));
+    stats.setValue(slot >= 0 ? table.score(slot) / (2.0 * Math.max(table.visits(slot), 1)) : 0.5);
+  }
+
+  // Most visited column among the candidates of B
+  int bestColumn(CXBoard B) {
+    long cols = candidates(B);
+    int best = -1;
+    int bestVisits = -1;
+    for (int x = 0; x < B.N; x++) {
+      if (cols == -1L ? !B.fullColumn(x) : (cols >>> x & 1) != 0) {
+        int slot = table.find(B.hashKeyAfter(x));
+        int v = slot >= 0 ? table.visits(slot) : 0;
+        if (v > bestVisits) {
+          bestVisits = v;
+          best = x;
+        }
+      }
+    }
+    return best;
+  }
+
+  // Most visited path from the first column, through positions visited at
+  // least twice
+  private int[] principalVariation(CXBoard B, int move) {
+    int[] pv = new int[64];
+    int n = 0;
+    pv[n++] = move;
+    while (n < pv.length && B.markColumn(move) == CXGameState.OPEN) {
+      move = bestColumn(B);
+      int slot = table.find(B.hashKeyAfter(move));
+      if (slot < 0 || table.visits(slot) < 2) {
+        break;
+      }
+      pv[n++] = move;
+    }
+    return java.util.Arrays.copyOf(pv, n);
+  }
+
+  /**
+   * Runs simulations on its own board, descending the graph.
+   */
+  private final class GraphWorker extends Worker {
+    private final long[] path; // positions of the current simulation, from the root
+    private byte end; // state of the last position of the path
+
+    GraphWorker(int cells, int id) {
+      super(id);
+      this.path = new long[cells + 1];
+    }
+
+    void simulate() {
+      int rootPlayer = B.currentPlayer();
+      int n = select();
+      int winner; // 0, 1, or -1 for a draw
+      if (end == NodeTable.WIN) {
+        winner = (rootPlayer + n - 2) & 1; // the player who moved into the leaf
+      } else if (end == NodeTable.DRAW) {
+        winner = -1;
+      } else {
+        winner = rollout(B, random);
+        rollouts++;
+      }
+      synchronized (MonteCarloDag.this) {
+        for (int i = 1; i < n; i++) {
+          int slot = table.find(path[i]); // may have been replaced meanwhile
+          if (slot >= 0) {
+            int mover = (rootPlayer + i - 1) & 1;
+            table.addScore(slot, winner == mover ? 2 : winner < 0 ? 1 : 0);
+          }
+        }
+      }
+      for (int i = 1; i < n; i++) {
+        B.unmarkColumn();
+      }
+      depth = Math.max(depth, n - 1);
+    }
+
+    // Descends the graph marking the columns on B until a position not
+    // visited yet (added to the table if needed) or the end of the game, and
+    // returns the length of the path; every position of the path is visited.
+    // The state of the last position is left in end.
+    private int select() {
+      synchronized (MonteCarloDag.this) {
+        int n = 0;
+        int v = table.find(rootKey);
+        if (v < 0) {
+          v = table.insert(rootKey, NodeTable.OPEN, rootKey);
+        }
+        path[n++] = rootKey;
+        table.addVisit(v);
+        while (true) {
+          long cols = candidates(B);
+          double logN = Math.log(Math.max(table.visits(v), 1));
+          int bestColumn = -1;
+          int bestSlot = -1;
+          double bestValue = Double.NEGATIVE_INFINITY;
+          for (int x = 0; x < B.N; x++) {
+            if (cols == -1L ? B.fullColumn(x) : (cols >>> x & 1) == 0) {
+              continue;
+            }
+            probes++;
+            int c = table.find(B.hashKeyAfter(x));
+            if (c < 0 || table.visits(c) == 0) {
+              bestColumn = x; // positions not visited yet first
+              bestSlot = c;
+              break;
+            }
+            hits++;
+            double value = table.score(c) / (2.0 * table.visits(c)) + C * Math.sqrt(logN / table.visits(c));
+            if (value > bestValue) {
+              bestValue = value;
+              bestColumn = x;
+              bestSlot = c;
+            }
+          }
+          boolean leaf = bestSlot < 0 || table.visits(bestSlot) == 0;
+          if (bestSlot < 0) {
+            byte state = B.isWinningColumn(B.currentPlayer(), bestColumn) ? NodeTable.WIN
+                : B.numOfFreeCells() == 1 ? NodeTable.DRAW : NodeTable.OPEN;
+            bestSlot = table.insert(B.hashKeyAfter(bestColumn), state, rootKey);
+          }
+          B.markColumn(bestColumn);
+          path[n++] = B.hashKey();
+          v = bestSlot;
+          table.addVisit(v);
+          end = table.state(v);
+          if (leaf || end != NodeTable.OPEN) {
+            return n;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package connectx.BabbiniLibra;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import connectx.CXBoard;
+import connectx.CXGameState;
+import connectx.CXPlayer;
+import connectx.CXSearchStats;
+
+/**
+ * Driver of the Monte Carlo Tree Search players ({@link MonteCarlo},
+ * {@link MonteCarloDag}), which differ only in how they store the nodes.
+ * <p>
+ * A move runs simulations until the time runs out: the worker of the caller
+ * thread and those of the helper threads, each on its own board, share the
+ * nodes of the player under its lock. The column played is the most visited
+ * one. The random games and the columns worth playing are the same for the
+ * two players.
+ * </p>
+ */
+abstract class MonteCarloSearch implements CXPlayer, CXSearchStats.Provider {
+  // Simulation threads, -Dbabbinilibra.mcts.threads=<threads>
+  private static final int THREADS = Math.max(1, Integer.getInteger("babbinilibra.mcts.threads",
+      Runtime.getRuntime().availableProcessors()));
+
+  // Exploration constant of the upper confidence bound
+  static final double C = Double.parseDouble(System.getProperty("babbinilibra.mcts.c", "1.0"));
+
+  // Visits of the root after which the search stops, before the scores overflow
+  private static final int MAX_VISITS = 1 << 29;
+
+  // Simulations between two polls of the deadline
+  private static final int POLL_SIMULATIONS = 16;
+
+  private int TIMEOUT;
+  private Deadline deadline;
+  private Worker[] workers; // workers[0] runs on the caller thread
+  private ExecutorService helpers;
+  private Future<?>[] futures;
+  CXSearchStats stats; // of the last selectColumn call
+
+  public void initPlayer(int M, int N, int K, boolean first, int timeout_in_secs) {
+    TIMEOUT = timeout_in_secs;
+    stats = null;
+    initNodes(M, N, K);
+    workers = new Worker[THREADS];
+    for (int h = 0; h < THREADS; h++) {
+      workers[h] = newWorker(M * N + 1, h);
+    }
+    if (THREADS > 1 && helpers == null) {
+      helpers = Executors.newFixedThreadPool(THREADS - 1, r -> {
+        Thread t = new Thread(r, playerName() + " helper");
+        t.setDaemon(true);
+        return t;
+      });
+      futures = new Future<?>[THREADS - 1];
+    }
+  }
+
+  /**
+   * Selects a free colum on game board.
+   * <p>
+   * Runs simulations from the board until the time runs out (or the thread
+   * is interrupted) and selects the most visited column. A winning column is
+   * selected at once, as is the only column that does not lose at once.
+   * </p>
+   */
+  public int selectColumn(CXBoard B) {
+    deadline = Deadline.forMove(TIMEOUT);
+    stats = new CXSearchStats();
+    int reused = newRoot(B);
+    for (Worker w : workers) {
+      w.simulations = w.rollouts = 0;
+      w.depth = 0;
+    }
+    long cols = candidates(B);
+    if (cols == -1L || Long.bitCount(cols) > 1) {
+      for (int h = 1; h < THREADS; h++) {
+        workers[h].B = B.fork();
+        futures[h - 1] = helpers.submit(workers[h]);
+      }
+      workers[0].B = B;
+      workers[0].run();
+      deadline.cancel(); // stops the helpers
+      for (int h = 1; h < THREADS; h++) {
+        try {
+          futures[h - 1].get();
+        } catch (InterruptedException | ExecutionException e) {
+          System.err.println("helper " + h + ": " + e);
+        }
+      }
+    }
+
+    int best = bestColumn(B);
+    long simulations = 0;
+    long rollouts = 0;
+    int depth = 0;
+    for (Worker w : workers) {
+      simulations += w.simulations;
+      rollouts += w.rollouts;
+      depth = Math.max(depth, w.depth);
+    }
+    stats.count(simulations, rollouts, 0, 0, 0);
+    stats.completedDepth(Math.max(depth, 1), deadline.elapsed(), simulations);
+    stats.setTime(deadline.elapsed());
+    stats.setReused(reused);
+    endSearch(B, best);
+    return best;
+  }
+
+  public CXSearchStats lastSearchStats() {
+    return stats;
+  }
+
+  // Prepares the nodes for the games on an M x N board, connecting K
+  abstract void initNodes(int M, int N, int K);
+
+  // Makes the position on B the root of the search and returns the
+  // simulations it already has
+  abstract int newRoot(CXBoard B);
+
+  // Visits of the root (under the lock)
+  abstract int rootVisits();
+
+  abstract Worker newWorker(int cells, int id);
+
+  // Most visited column of the root, whose position is on B
+  abstract int bestColumn(CXBoard B);
+
+  // Ends the search that selected a column: adds the principal variation and
+  // the value of the column, and what the store counts, to the stats
+  abstract void endSearch(CXBoard B, int column);
+
+  /**
+   * Runs simulations on its own board until the deadline.
+   */
+  abstract class Worker implements Runnable {
+    final SplittableRandom random;
+    CXBoard B;
+    long simulations;
+    long rollouts; // random games played (not ending in the stored nodes)
+    int depth; // longest path through the stored nodes
+
+    Worker(int id) {
+      this.random = new SplittableRandom(System.nanoTime() + 31L * id);
+    }
+
+    public void run() {
+      while (!deadline.isCancelled()) {
+        if (simulations % POLL_SIMULATIONS == 0 && (deadline.poll() || visitsOfRoot() >= MAX_VISITS)) {
+          break;
+        }
+        simulate();
+        simulations++;
+      }
+    }
+
+    private int visitsOfRoot() {
+      synchronized (MonteCarloSearch.this) {
+        return rootVisits();
+      }
+    }
+
+    // One simulation from the root, with B back on the root at the end
+    abstract void simulate();
+  }
+
+  // Columns worth playing: a mask on boards up to 64 columns, -1 (all the
+  // free columns) otherwise
+  static long candidates(CXBoard B) {
+    if (B.N > 64) {
+      return -1L;
+    }
+    long win = B.winningColumns(B.currentPlayer());
+    if (win != 0) {
+      return win & -win;
+    }
+    long safe = B.nonLosingColumns();
+    if (safe != 0) {
+      return safe;
+    }
+    long free = 0L;
+    for (int x = 0; x < B.N; x++) {
+      if (!B.fullColumn(x)) {
+        free |= 1L << x;
+      }
+    }
+    return free;
+  }
+
+  // Random game from B, undone before returning: the index of the winner, or
+  // -1 for a draw
+  static int rollout(CXBoard B, SplittableRandom random) {
+    int moves = 0;
+    CXGameState s = CXGameState.OPEN;
+    while (s == CXGameState.OPEN) {
+      s = B.markColumn(randomColumn(B, random));
+      moves++;
+    }
+    for (int k = 0; k < moves; k++) {
+      B.unmarkColumn();
+    }
+    return s == CXGameState.WINP1 ? 0 : s == CXGameState.WINP2 ? 1 : -1;
+  }
+
+  private static int randomColumn(CXBoard B, SplittableRandom random) {
+    if (B.N <= 64) {
+      long cols = candidates(B);
+      for (int k = random.nextInt(Long.bitCount(cols)); k > 0; k--) {
+        cols &= cols - 1;
+      }
+      return Long.numberOfTrailingZeros(cols);
+    }
+    int x = random.nextInt(B.N);
+    while (B.fullColumn(x)) {
+      x = x + 1 == B.N ? 0 : x + 1;
+    }
+    return x;
+  }
+}
@@ -0,0 +1,130 @@
+package connectx.BabbiniLibra;
+
+import connectx.CXBoard;
+
+/**
+ * Dynamic move ordering for the searches.
+ * <p>
+ * The columns of a position are tried in this order: the best move of the
+ * transposition table, the two killer moves of the ply (the last moves that
+ * caused a cutoff at the same number of marked cells) and then the other
+ * columns by decreasing history score, the base order breaking ties. The
+ * history score of a move is indexed by player, column and height of the
+ * cell, and grows with the depth of the cutoffs it caused.
+ * </p>
+ * <p>
+ * An instance is used by one search thread at a time.
+ * </p>
+ */
+public final class MoveOrder {
+  private static final int HISTORY_LIMIT = 1 << 28; // halves the table beyond this
+
+  private final int M;
+  private final int N;
+  private final int[] base; // columns in the default order
+  private final int[] history; // indexed by (player * N + column) * M + height
+  private final int[] killers; // two per number of marked cells
+  private final int[] scores; // history of the moves being ordered
+
+  /**
+   * @param M    board rows
+   * @param N    board columns
+   * @param base every column once, in the order used when nothing else is known
+   */
+  public MoveOrder(int M, int N, int[] base) {
+    this.M = M;
+    this.N = N;
+    this.base = base.clone();
+    this.history = new int[2 * N * M];
+    this.killers = new int[2 * (M * N + 1)];
+    this.scores = new int[N];
+    clear();
+  }
+
+  /** Forgets the history and the killer moves */
+  public void clear() {
+    java.util.Arrays.fill(history, 0);
+    java.util.Arrays.fill(killers, -1);
+  }
+
+  /**
+   * Starts a new search: the history of the previous searches counts half.
+   */
+  public void newSearch() {
+    for (int i = 0; i < history.length; i++) {
+      history[i] >>= 1;
+    }
+  }
+
+  /**
+   * Writes the free columns of <code>B</code> in <code>allowed</code> to
+   * <code>moves</code>, best first.
+   *
+   * @param ttMove  best move of the transposition table, or -1
+   * @param allowed mask of the columns to consider (-1 for all of them, the
+   *                only valid mask with more than 64 columns)
+   * @param moves   buffer of at least N elements
+   * @return the number of columns written
+   */
+  public int order(CXBoard B, int ttMove, long allowed, int[] moves) {
+    int p = B.currentPlayer();
+    int ply = B.numOfMarkedCells();
+    int n = 0;
+    if (ttMove >= 0 && !B.fullColumn(ttMove) && (allowed >>> ttMove & 1) != 0) {
+      moves[n++] = ttMove;
+    }
+    for (int k = 0; k < 2; k++) {
+      int x = killers[2 * ply + k];
+      if (x >= 0 && x != ttMove && !B.fullColumn(x) && (allowed >>> x & 1) != 0
+          && (k == 0 || x != killers[2 * ply])) {
+        moves[n++] = x;
+      }
+    }
+
+    // insertion of the other columns by history, stable on the base order
+    int start = n;
+    for (int x : base) {
+      if (B.fullColumn(x) || (allowed >>> x & 1) == 0 || contains(moves, start, x)) {
+        continue;
+      }
+      int s = history[(p * N + x) * M + B.columnHeight(x)];
+      int h = n++;
+      while (h > start && scores[h - 1] < s) {
+        moves[h] = moves[h - 1];
+        scores[h] = scores[h - 1];
+        h--;
+      }
+      moves[h] = x;
+      scores[h] = s;
+    }
+    return n;
+  }
+
+  /**
+   * Records that column <code>x</code> caused a cutoff in <code>B</code>,
+   * searched to the given depth.
+   */
+  public void cutoff(CXBoard B, int x, int depth) {
+    int i = (B.currentPlayer() * N + x) * M + B.columnHeight(x);
+    history[i] += depth * depth;
+    if (history[i] > HISTORY_LIMIT) {
+      for (int k = 0; k < history.length; k++) {
+        history[k] >>= 1;
+      }
+    }
+    int ply = B.numOfMarkedCells();
+    if (killers[2 * ply] != x) {
+      killers[2 * ply + 1] = killers[2 * ply];
+      killers[2 * ply] = x;
+    }
+  }
+
+  private static boolean contains(int[] moves, int n, int x) {
+    for (int k = 0; k < n; k++) {
+      if (moves[k] == x) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
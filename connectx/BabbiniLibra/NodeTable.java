@@ -0,0 +1,162 @@
+package connectx.BabbiniLibra;
+
+/**
+ * Node store of the Monte Carlo search on positions: an open addressing hash
+ * table keyed by the 64-bit Zobrist key of the position.
+ * <p>
+ * A position reached by different move orders has a single node, so its
+ * visits and results are shared by all its parents and the tree becomes a
+ * directed acyclic graph. The results are those of the player who moved into
+ * the position, which depends only on the position.
+ * </p>
+ * <p>
+ * A position is searched for in a window of {@link #WINDOW} slots from its
+ * hashed index. When the window is full, a new position replaces the one with
+ * the fewest visits, halved for every search (see {@link #newSearch}) since
+ * it was last used; nothing is ever removed otherwise, so the windows never
+ * have holes. The table size is fixed at construction.
+ * </p>
+ * <p>
+ * An instance is not thread safe: the caller serializes the accesses.
+ * </p>
+ */
+public final class NodeTable {
+  /** The game goes on after the move into the position */
+  public static final byte OPEN = 1;
+  /** The player who moved into the position won */
+  public static final byte WIN = 2;
+  /** The game ended in a draw */
+  public static final byte DRAW = 3;
+
+  /** Slots searched for a position */
+  public static final int WINDOW = 8;
+
+  private static final int ENTRY_BYTES = 8 + 4 + 4 + 1 + 1;
+
+  private final long[] keys;
+  private final int[] visits;
+  private final int[] scores; // 2 per win and 1 per draw
+  private final byte[] states; // 0 for an empty slot
+  private final byte[] stamps; // search of the last use
+  private final int mask;
+  private int generation;
+  private int size;
+
+  /**
+   * Allocates a table of at most <code>sizeMB</code> megabytes (rounded down to
+   * a power of two slots, at least {@link #WINDOW}).
+   */
+  public NodeTable(int sizeMB) {
+    long slots = Math.max(WINDOW, ((long) sizeMB << 20) / ENTRY_BYTES);
+    int n = Integer.highestOneBit((int) Math.min(slots, 1 << 30));
+    keys = new long[n];
+    visits = new int[n];
+    scores = new int[n];
+    states = new byte[n];
+    stamps = new byte[n];
+    mask = n - 1;
+  }
+
+  /** Empties the table */
+  public void clear() {
+    java.util.Arrays.fill(states, (byte) 0);
+    size = 0;
+    generation = 0;
+  }
+
+  /**
+   * Starts a new search: the positions not used in it count half when a
+   * replacement is chosen, a quarter after two searches, and so on.
+   */
+  public void newSearch() {
+    generation = (generation + 1) & 0xFF;
+  }
+
+  /**
+   * Looks up a position and marks it as used.
+   *
+   * @return its slot, or -1 if the position is not in the table
+   */
+  public int find(long key) {
+    int i = index(key);
+    for (int k = 0; k < WINDOW; k++, i = (i + 1) & mask) {
+      if (states[i] != 0 && keys[i] == key) {
+        stamps[i] = (byte) generation;
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a position without visits, which must not be in the table, replacing
+   * the least useful one of its window if there is no free slot.
+   *
+   * @param state        OPEN, WIN or DRAW
+   * @param protectedKey a position that must not be replaced (the root)
+   * @return its slot
+   */
+  public int insert(long key, byte state, long protectedKey) {
+    int i = index(key);
+    int victim = -1;
+    long worst = Long.MAX_VALUE;
+    for (int k = 0; k < WINDOW; k++, i = (i + 1) & mask) {
+      if (states[i] == 0) {
+        victim = i;
+        size++;
+        break;
+      }
+      if (keys[i] == protectedKey) {
+        continue;
+      }
+      int age = Math.min((generation - stamps[i]) & 0xFF, 31);
+      long worth = visits[i] >>> age;
+      if (worth < worst) {
+        worst = worth;
+        victim = i;
+      }
+    }
+    keys[victim] = key;
+    visits[victim] = 0;
+    scores[victim] = 0;
+    states[victim] = state;
+    stamps[victim] = (byte) generation;
+    return victim;
+  }
+
+  public int visits(int slot) {
+    return visits[slot];
+  }
+
+  public int score(int slot) {
+    return scores[slot];
+  }
+
+  public byte state(int slot) {
+    return states[slot];
+  }
+
+  public void addVisit(int slot) {
+    visits[slot]++;
+  }
+
+  public void addScore(int slot, int score) {
+    scores[slot] += score;
+  }
+
+  /** Number of positions in the table */
+  public int size() {
+    return size;
+  }
+
+  /** Number of positions the table can hold */
+  public int capacity() {
+    return keys.length;
+  }
+
+  private int index(long key) {
+    key ^= key >>> 29;
+    key *= 0xBF58476D1CE4E5B9L;
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+}
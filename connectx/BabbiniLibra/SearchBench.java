@@ -0,0 +1,102 @@
+package connectx.BabbiniLibra;
+
+import connectx.CXBoard;
+import connectx.CXGameState;
+import java.util.Random;
+
+/**
+ * Compares the search algorithms of BabbiniLibra, searching the same
+ * positions to the same depth: plain alpha-beta, principal variation search,
+ * MTD(f) and the parallel alpha-beta (Young Brothers Wait).
+ * <p>
+ * Usage: java connectx.BabbiniLibra.SearchBench [M N X depth [positions]]
+ * </p>
+ * <p>
+ * Every position is searched with iterative deepening up to the depth, as
+ * the player does. Without arguments a few board sizes are tried, from the
+ * standard 6x7 board to the wide ones, where splitting the nodes pays off
+ * most. For every algorithm the total time and nodes are printed, with the
+ * speedup and the node ratio against alpha-beta. The threads of the parallel search are set
+ * with -Dbabbinilibra.ybw.threads (default: the available processors). The
+ * scores may differ slightly, since the transposition table entries are found
+ * in a different order.
+ * </p>
+ * <p>
+ * The times are not those of a cold JVM: every board size starts with a pass
+ * of all the algorithms on an extra position, whose times are discarded, so
+ * that the first algorithm does not pay the compilation of the code shared
+ * by all. The order of the algorithms is then rotated from one position to
+ * the next.
+ * </p>
+ */
+public class SearchBench {
+  private static final int[][] CASES = { { 6, 7, 4, 10 }, { 9, 9, 5, 8 }, { 20, 20, 5, 6 }, { 30, 30, 5, 5 },
+      { 50, 50, 6, 4 } };
+
+  private static final String[] NAMES = { "alphabeta", "pvs", "mtdf", "ybw" };
+  private static final BabbiniLibra.Search[] SEARCHES = { BabbiniLibra.Search.ALPHABETA, BabbiniLibra.Search.PVS,
+      BabbiniLibra.Search.MTDF, BabbiniLibra.Search.ALPHABETA };
+  private static final boolean[] PARALLEL = { false, false, false, true };
+
+  public static void main(String[] args) {
+    int[][] cases = CASES;
+    int positions = 4;
+    if (args.length >= 4) {
+      cases = new int[][] { { Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+          Integer.parseInt(args[3]) } };
+      if (args.length >= 5) {
+        positions = Integer.parseInt(args[4]);
+      }
+    }
+
+    System.out.println("ybw threads " + Integer.getInteger("babbinilibra.ybw.threads",
+        Runtime.getRuntime().availableProcessors()));
+    for (int[] c : cases) {
+      int M = c[0], N = c[1], X = c[2], depth = c[3];
+      Random rand = new Random(M * 31 + N);
+      long[] time = new long[NAMES.length];
+      long[] nodes = new long[NAMES.length];
+      CXBoard W = opening(M, N, X, new Random(rand.nextLong()));
+      BabbiniLibra warmup = new BabbiniLibra();
+      warmup.initPlayer(M, N, X, W.currentPlayer() == 0, 1);
+      for (int a = 0; a < NAMES.length; a++) {
+        warmup.searchDepth(W, depth, SEARCHES[a], PARALLEL[a]);
+      }
+      for (int p = 0; p < positions; p++) {
+        CXBoard B = opening(M, N, X, rand);
+        BabbiniLibra player = new BabbiniLibra();
+        player.initPlayer(M, N, X, B.currentPlayer() == 0, 1);
+
+        int[] score = new int[NAMES.length];
+        for (int k = 0; k < NAMES.length; k++) {
+          int a = (p + k) % NAMES.length;
+          long t = System.nanoTime();
+          score[a] = player.searchDepth(B, depth, SEARCHES[a], PARALLEL[a]);
+          time[a] += System.nanoTime() - t;
+          nodes[a] += player.searchNodes();
+        }
+        StringBuilder scores = new StringBuilder();
+        for (int a = 0; a < NAMES.length; a++) {
+          scores.append(' ').append(NAMES[a]).append(' ').append(score[a]);
+        }
+        System.out.printf("%dx%d X=%d depth %d position %d:%s%n", M, N, X, depth, p, scores);
+      }
+      for (int a = 0; a < NAMES.length; a++) {
+        System.out.printf("%dx%d X=%d depth %d %-9s %6d ms %12d nodes  speedup %.2f  nodes %.2f%n", M, N, X, depth,
+            NAMES[a], time[a] / 1_000_000, nodes[a], (double) time[0] / time[a], (double) nodes[a] / nodes[0]);
+      }
+    }
+  }
+
+  // A few random moves from the empty board, avoiding finished games
+  private static CXBoard opening(int M, int N, int X, Random rand) {
+    CXBoard B = new CXBoard(M, N, X);
+    for (int k = 0; k < 4; k++) {
+      Integer[] L = B.getAvailableColumns();
+      if (B.markColumn(L[rand.nextInt(L.length)]) != CXGameState.OPEN) {
+        B.unmarkColumn();
+      }
+    }
+    return B;
+  }
+}
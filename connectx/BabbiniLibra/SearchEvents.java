@@ -0,0 +1,92 @@
+package connectx.BabbiniLibra;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the searches of BabbiniLibra and CCC.
+ * <p>
+ * The duration of an event is the time spent on the iteration or on the root
+ * move, so that it lines up with the GC and JIT events of the same recording
+ * (for example java -XX:StartFlightRecording=filename=search.jfr ...). When no
+ * recording is running the events are not committed and cost only their
+ * allocation.
+ * </p>
+ */
+final class SearchEvents {
+  private SearchEvents() {
+  }
+
+  /** One iterative deepening iteration (for CCC: the whole solve). */
+  @Name("connectx.SearchIteration")
+  @Label("Search Iteration")
+  @Category({ "ConnectX", "Search" })
+  @StackTrace(false)
+  static final class Iteration extends Event {
+    @Label("Player")
+    String player;
+
+    @Label("Thread")
+    @Description("Search thread, 0 for the caller thread")
+    int thread;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Score")
+    int score;
+
+    @Label("Nodes")
+    @Description("Nodes visited by the thread since the start of the move")
+    long nodes;
+
+    @Label("Elapsed")
+    @Description("Time since the start of the move")
+    @Timespan
+    long elapsed;
+
+    @Label("Completed")
+    @Description("False if the time ran out during the iteration")
+    boolean completed;
+  }
+
+  /** The search of one root move within an iteration. */
+  @Name("connectx.SearchRootMove")
+  @Label("Search Root Move")
+  @Category({ "ConnectX", "Search" })
+  @StackTrace(false)
+  static final class RootMove extends Event {
+    @Label("Player")
+    String player;
+
+    @Label("Thread")
+    int thread;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Column")
+    int column;
+
+    @Label("Score")
+    int score;
+
+    @Label("Nodes")
+    @Description("Nodes visited by the thread since the start of the move")
+    long nodes;
+
+    @Label("Elapsed")
+    @Description("Time since the start of the move")
+    @Timespan
+    long elapsed;
+
+    @Label("Completed")
+    @Description("False if the time ran out during the search of the move")
+    boolean completed;
+  }
+}
@@ -0,0 +1,77 @@
+package connectx.BabbiniLibra;
+
+/**
+ * Transposition table of the exact solver: one bound per position.
+ * <p>
+ * Each slot holds the full 64-bit position key and a small non-zero value (0
+ * marks an empty slot), so an entry takes ten bytes. The number of slots is a
+ * prime, since the compact position keys of small boards are far from
+ * uniformly distributed and would crowd a power of two table. A new position
+ * always replaces the one in its slot.
+ * </p>
+ */
+public final class SolverTable {
+  private final long[] keys;
+  private final short[] values;
+
+  /**
+   * Allocates a table of at most <code>sizeMB</code> megabytes.
+   */
+  public SolverTable(int sizeMB) {
+    long slots = Math.max(2, ((long) sizeMB << 20) / 10);
+    int size = (int) Math.min(slots, 1 << 30);
+    while (!isPrime(size)) {
+      size--;
+    }
+    keys = new long[size];
+    values = new short[size];
+  }
+
+  /** Empties the table */
+  public void clear() {
+    java.util.Arrays.fill(keys, 0L);
+    java.util.Arrays.fill(values, (short) 0);
+  }
+
+  /**
+   * Stores the value of a position, replacing the one in its slot.
+   *
+   * @param value between 1 and {@link Short#MAX_VALUE}
+   */
+  public void put(long key, int value) {
+    int i = index(key);
+    keys[i] = key;
+    values[i] = (short) value;
+  }
+
+  /**
+   * Looks up a position.
+   *
+   * @return the stored value, or 0 if the position is not in the table
+   */
+  public int get(long key) {
+    int i = index(key);
+    return keys[i] == key ? values[i] : 0;
+  }
+
+  /** Number of positions the table can hold */
+  public int capacity() {
+    return keys.length;
+  }
+
+  private int index(long key) {
+    return (int) Long.remainderUnsigned(key, keys.length);
+  }
+
+  private static boolean isPrime(int n) {
+    if (n < 2 || n % 2 == 0) {
+      return n == 2;
+    }
+    for (int d = 3; (long) d * d <= n; d += 2) {
+      if (n % d == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
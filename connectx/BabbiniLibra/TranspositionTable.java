@@ -0,0 +1,132 @@
+package connectx.BabbiniLibra;
+
+/**
+ * Fixed-size transposition table stored in a <code>long[]</code>.
+ * <p>
+ * The table is made of buckets of two entries: the first one is replaced only
+ * by searches at least as deep (or by the next searches, once it gets old),
+ * the second one is always replaced. Each entry takes two longs: the packed
+ * data (score, depth, bound type, best move and search generation) and the
+ * full 64-bit position key XOR the data, used to verify hits.
+ * </p>
+ * <p>
+ * The table can be shared by several search threads without locks: an entry
+ * torn by concurrent writes fails the key verification and reads as a miss.
+ * </p>
+ */
+public final class TranspositionTable {
+  /** The score is the exact minimax value */
+  public static final int EXACT = 1;
+  /** The score is a lower bound (the search failed high) */
+  public static final int LOWER = 2;
+  /** The score is an upper bound (the search failed low) */
+  public static final int UPPER = 3;
+
+  private static final int BUCKET_LONGS = 4; // two entries of (key, data)
+
+  private final long[] table;
+  private final int mask; // buckets - 1
+  private int generation;
+
+  /**
+   * Allocates a table of at most <code>sizeMB</code> megabytes (rounded down to
+   * a power of two buckets, at least one).
+   */
+  public TranspositionTable(int sizeMB) {
+    long buckets = Math.max(1, ((long) sizeMB << 20) / (8 * BUCKET_LONGS));
+    int b = Integer.highestOneBit((int) Math.min(buckets, 1 << 26));
+    table = new long[b * BUCKET_LONGS];
+    mask = b - 1;
+  }
+
+  /** Empties the table */
+  public void clear() {
+    java.util.Arrays.fill(table, 0L);
+    generation = 0;
+  }
+
+  /**
+   * Starts a new search: entries stored by previous searches can be replaced
+   * by shallower ones.
+   */
+  public void newSearch() {
+    generation = (generation + 1) & 0x3F;
+  }
+
+  /**
+   * Looks up a position.
+   *
+   * @return the packed entry data (read it with <code>score</code>,
+   *         <code>depth</code>, <code>flag</code> and <code>move</code>), or 0 if
+   *         the position is not in the table
+   */
+  public long probe(long key) {
+    int i = index(key);
+    long data = table[i + 1];
+    if (data != 0 && (table[i] ^ data) == key) {
+      return data;
+    }
+    data = table[i + 3];
+    if (data != 0 && (table[i + 2] ^ data) == key) {
+      return data;
+    }
+    return 0L;
+  }
+
+  /**
+   * Stores the result of a search.
+   *
+   * @param key   position key
+   * @param score search score
+   * @param depth remaining depth of the search (0-255)
+   * @param flag  EXACT, LOWER or UPPER
+   * @param move  best column found, or -1
+   */
+  public void store(long key, int score, int depth, int flag, int move) {
+    int i = index(key);
+    long data = pack(score, depth, flag, move);
+    long old = table[i + 1];
+    if (old == 0 || (table[i] ^ old) == key || depth >= depth(old) || generation(old) != generation) {
+      table[i] = key ^ data;
+      table[i + 1] = data;
+    } else {
+      table[i + 2] = key ^ data;
+      table[i + 3] = data;
+    }
+  }
+
+  /** Number of entries the table can hold */
+  public int capacity() {
+    return table.length / 2;
+  }
+
+  public static int score(long data) {
+    return (int) data;
+  }
+
+  public static int depth(long data) {
+    return (int) (data >>> 32) & 0xFF;
+  }
+
+  public static int flag(long data) {
+    return (int) (data >>> 40) & 0x3;
+  }
+
+  /** Best column, or -1 if none */
+  public static int move(long data) {
+    return ((int) (data >>> 42) & 0xFFFF) - 1;
+  }
+
+  private static int generation(long data) {
+    return (int) (data >>> 58) & 0x3F;
+  }
+
+  private long pack(int score, int depth, int flag, int move) {
+    return (score & 0xFFFFFFFFL) | ((long) Math.min(Math.max(depth, 0), 0xFF) << 32) | ((long) flag << 40)
+        | ((long) ((move + 1) & 0xFFFF) << 42) | ((long) generation << 58);
+  }
+
+  private int index(long key) {
+    return (int) ((key ^ (key >>> 32)) & mask) * BUCKET_LONGS;
+  }
+}
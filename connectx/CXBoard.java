@@ -19,8 +19,6 @@
 package connectx;
 
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.TreeSet;
 //import java.util.stream.Collectors;
 
 /**
@@ -29,9 +27,18 @@ import java.util.TreeSet;
  * The CXBoard class allows only alternates moves between two players. It
  * mantains the ordered list of moves and allows undoes.
  * </p>
+ * <p>
+ * The grid is stored as one bitboard per player. Cells are numbered column by
+ * column from the bottom, with one extra (always empty) guard bit on top of
+ * each column, so that bit <code>j*(M+1)+h</code> is the cell at height
+ * <code>h</code> of column <code>j</code>, i.e. row <code>M-1-h</code>.
+ * Boards whose <code>N*(M+1)</code> bits fit in a single <code>long</code>
+ * are checked for wins with shift-and-mask operations on the whole bitboard;
+ * larger boards use a <code>long[]</code> per player.
+ * </p>
  */
 
-public class CXBoard {
+public class CXBoard implements CXBoardView {
 	/**
 	 * Board rows
 	 */
@@ -47,15 +54,29 @@ public class CXBoard {
 	 */
 	public final int X;
 
-	// grid for the board
-	protected CXCellState[][] B;
+	// Bits per column (M rows plus the guard bit) and 64-bit words per player
+	protected final int H;
+	protected final int W;
 
-	protected LinkedList<CXCell> MC;   // Marked Cells stack (used to undo)
-	protected int                RP[]; // First free row position
-	protected TreeSet<Integer>   AC;   // Availabe (not full) columns
-	
-	// we define characters for players (PR for Red, PY for Yellow)
-	private final CXCellState[] Player = {CXCellState.P1, CXCellState.P2};
+	// Tables shared by the boards of this size
+	protected final CXGeometry G;
+
+	// grid for the board: W words for player 1 followed by W words for player 2
+	protected long[] P;
+
+	protected int    MC[]; // Marked columns stack (used to undo)
+	protected int    MN;   // Number of marked cells
+	protected int    MB;   // Number of marked cells that cannot be undone (fork point)
+	protected int    HT[]; // Column heights (number of marked cells)
+	protected long   AC[]; // Availabe (not full) columns, one bit per column
+	protected long   HK;   // Zobrist key of the current position
+	private   long   RS[]; // Scratch runs for winningCells, allocated on first use
+
+	// Optional line counters (null when line tracking is off)
+	protected int LN[];  // Cells of P1 in each line, followed by cells of P2
+	protected int LH[];  // Number of lines with a cells of P1 and b of P2, indexed by a*(X+1)+b
+	protected int LW[];  // Optional weight of the lines with a cells of P1 and b of P2, same index
+	protected long LV;   // Sum of the weights of all the lines
 
 	protected int currentPlayer; // currentPlayer plays next move
 
@@ -83,14 +104,53 @@ public class CXBoard {
 		this.N = N;
 		this.X = X;
 
-		B  = new CXCellState[M][N];
-		MC = new LinkedList<CXCell>();
-		RP = new int[N];
-		AC = new TreeSet<Integer>();
+		this.G = CXGeometry.of(M, N, X);
+		this.H = G.H;
+		this.W = G.W;
+
+		P  = new long[2 * W];
+		MC = new int[M * N];
+		HT = new int[N];
+		AC = new long[(N + 63) >>> 6];
 		reset();
 
 	}
 
+	// Structural clone of B. The immutable tables are shared; the undo history is
+	// copied only if history is true, otherwise the clone starts at a fork point.
+	private CXBoard(CXBoard B, boolean history) {
+		this.M = B.M;
+		this.N = B.N;
+		this.X = B.X;
+		this.G = B.G;
+		this.H = B.H;
+		this.W = B.W;
+
+		P  = B.P.clone();
+		HT = B.HT.clone();
+		AC = B.AC.clone();
+		MN = B.MN;
+		HK = B.HK;
+		currentPlayer = B.currentPlayer;
+		gameState     = B.gameState;
+
+		if (B.LN != null) {
+			LN = B.LN.clone();
+			LH = B.LH.clone();
+			LW = B.LW; // never modified, shared
+			LV = B.LV;
+		}
+
+		if (history) {
+			MC = B.MC.clone();
+			MB = B.MB;
+		} else {
+			MC = new int[M * N];
+			MB = MN;
+			if (MN > 0) MC[MN - 1] = B.MC[MN - 1]; // keep getLastMove() working
+		}
+	}
+
 	/**
 	 * Resets the CXBoard
 	 */
@@ -103,19 +163,21 @@ public class CXBoard {
 
 	// Sets to free all board cells
 	private void initBoard() {
-		for (int i = 0; i < M; i++)
-			for (int j = 0; j < N; j++)
-				B[i][j] = CXCellState.FREE;
+		Arrays.fill(P, 0L);
 	}
 
 	//Resets the marked cells list and other data structures
 	private void initDataStructures() {
-		this.MC.clear();
-		this.AC.clear();
+		this.MN = 0;
+		this.MB = 0;
+		this.HK = 0L;
+		Arrays.fill(AC, 0L);
 		for (int j = 0; j < N; j++) {
-			RP[j] = M-1;
-			AC.add(j);
+			HT[j] = 0;
+			AC[j >>> 6] |= 1L << j;
 		}
+		if (LN != null)
+			countLines();
 	}
 
 	/**
@@ -131,8 +193,72 @@ public class CXBoard {
 	public CXCellState cellState(int i, int j) throws IndexOutOfBoundsException {
 		if (i < 0 || i >= M || j < 0 || j >= N)
 			throw new IndexOutOfBoundsException("Indexes " + i + "," + j + " are out of matrix bounds");
+		int q = j * H + M - 1 - i;
+		if (bit(0, q))
+			return CXCellState.P1;
+		else if (bit(1, q))
+			return CXCellState.P2;
 		else
-			return B[i][j];
+			return CXCellState.FREE;
+	}
+
+	public int rows() {
+		return M;
+	}
+
+	public int columns() {
+		return N;
+	}
+
+	public int toAlign() {
+		return X;
+	}
+
+	public int cellOwner(int i, int j) throws IndexOutOfBoundsException {
+		if (i < 0 || i >= M || j < 0 || j >= N)
+			throw new IndexOutOfBoundsException("Indexes " + i + "," + j + " are out of matrix bounds");
+		int q = j * H + M - 1 - i;
+		return bit(0, q) ? 0 : bit(1, q) ? 1 : -1;
+	}
+
+	public int columnHeight(int j) {
+		return HT[j];
+	}
+
+	public long columnBits(int player, int j, int h) {
+		int n = Math.min(64, M - h);
+		if (n <= 0)
+			return 0L;
+		int q = j * H + h, w = player * W + (q >>> 6), s = q & 63;
+		long b = P[w] >>> s;
+		if (s != 0 && (q >>> 6) + 1 < W)
+			b |= P[w + 1] << (64 - s);
+		return n == 64 ? b : b & ((1L << n) - 1);
+	}
+
+	public long rowBits(int player, int i, int j) {
+		int n = Math.min(64, N - j);
+		long b = 0L;
+		for (int k = 0, q = j * H + M - 1 - i; k < n; k++, q += H)
+			if (bit(player, q))
+				b |= 1L << k;
+		return b;
+	}
+
+	public CXGeometry geometry() {
+		return G;
+	}
+
+	public int words() {
+		return W;
+	}
+
+	public long playerMask(int player, int w) {
+		return P[player * W + w];
+	}
+
+	public long occupancyMask(int w) {
+		return P[w] | P[W + w];
 	}
 
 	/**
@@ -143,7 +269,110 @@ public class CXBoard {
 	 * @return true if col is outside matrix bounds of if it is full  
    */
 	public boolean fullColumn(int col) {
-		return  col < 0 || col >= N || RP[col] == -1; 
+		return  col < 0 || col >= N || HT[col] == M; 
+	}
+
+	/**
+	 * Checks whether a player would win by marking a column
+	 *
+	 * @param player player index (0 or 1)
+	 * @param col    column number
+	 *
+	 * @return true if the first free cell of col completes a line of X symbols of player
+	 */
+	public boolean isWinningColumn(int player, int col) {
+		if (fullColumn(col))
+			return false;
+		int q = col * H + HT[col];
+		return runLength(player, q, 0, 1) >= X || runLength(player, q, 1, H) >= X
+				|| runLength(player, q, 2, H + 1) >= X || runLength(player, q, 3, H - 1) >= X;
+	}
+
+	/**
+	 * Returns the columns where a player would win with the next move.
+	 * <p>
+	 * Bit <code>j</code> of the result is set if marking column <code>j</code>
+	 * completes a line of X symbols of <code>player</code>. On single-word boards
+	 * the winning cells of all the columns are computed at once on the bitboard.
+	 * </p>
+	 *
+	 * @param player player index (0 or 1)
+	 *
+	 * @return mask of the winning columns
+	 * @throws IllegalStateException If the board has more than 64 columns
+	 */
+	public long winningColumns(int player) throws IllegalStateException {
+		checkColumnMask();
+		if (W == 1)
+			return columnsOf(winningCells(player) & playableCells());
+		long cols = 0L;
+		for (int j = 0; j < N; j++)
+			if (isWinningColumn(player, j))
+				cols |= 1L << j;
+		return cols;
+	}
+
+	/**
+	 * Returns the columns the current player can mark without letting the
+	 * opponent win with the next move.
+	 * <p>
+	 * If the opponent threatens to win in a column, that is the only candidate;
+	 * with two or more threats no move is safe. Columns whose next cell is
+	 * right below a winning cell of the opponent are excluded. The winning moves
+	 * of the current player (see <code>winningColumns</code>) should be checked
+	 * first.
+	 * </p>
+	 *
+	 * @return mask of the non losing columns (0 if every move loses)
+	 * @throws IllegalStateException If the board has more than 64 columns
+	 */
+	public long nonLosingColumns() throws IllegalStateException {
+		checkColumnMask();
+		int o = 1 - currentPlayer;
+		if (W == 1) {
+			long opp = winningCells(o), play = playableCells();
+			long forced = opp & play;
+			if (forced != 0) {
+				if ((forced & (forced - 1)) != 0)
+					return 0L;
+				play = forced;
+			}
+			return columnsOf(play & ~(opp >>> 1));
+		}
+		long forced = 0L, safe = 0L;
+		for (int j = 0; j < N; j++) {
+			if (HT[j] == M)
+				continue;
+			int q = j * H + HT[j];
+			if (isWinningColumn(o, j))
+				forced |= 1L << j;
+			if (HT[j] + 1 == M || (runLength(o, q + 1, 0, 1) < X && runLength(o, q + 1, 1, H) < X
+					&& runLength(o, q + 1, 2, H + 1) < X && runLength(o, q + 1, 3, H - 1) < X))
+				safe |= 1L << j;
+		}
+		if (forced != 0)
+			return Long.bitCount(forced) > 1 ? 0L : forced & safe;
+		return safe;
+	}
+
+	/**
+	 * Counts the threats of a player: the free cells, playable now or not, that
+	 * would complete a line of X symbols of the player.
+	 *
+	 * @param player player index (0 or 1)
+	 *
+	 * @return number of winning cells of player
+	 */
+	public int numOfWinningCells(int player) {
+		if (W == 1)
+			return Long.bitCount(winningCells(player));
+		int n = 0;
+		for (int j = 0; j < N; j++)
+			for (int q = j * H + HT[j]; q < j * H + M; q++)
+				if (runLength(player, q, 0, 1) >= X || runLength(player, q, 1, H) >= X
+						|| runLength(player, q, 2, H + 1) >= X || runLength(player, q, 3, H - 1) >= X)
+					n++;
+		return n;
 	}
 
 	/**
@@ -152,10 +381,10 @@ public class CXBoard {
 	 * @return CXCell object or null
 	 */
 	public CXCell getLastMove() {
-		if (MC.size() == 0) 
+		if (MN == 0 || MC[MN - 1] < 0) // no move or history not available
 			return null;
 		else 
-			return MC.peekLast();
+			return cell(MN - 1, M - HT[MC[MN - 1]], MC[MN - 1]);
 	}
 
 	/**
@@ -182,7 +411,7 @@ public class CXBoard {
 	 * @return number of free cells
 	 */
 	public int numOfFreeCells() {
-		return M*N-MC.size();
+		return M*N-MN;
 	}
 	
 	/**
@@ -191,7 +420,147 @@ public class CXBoard {
 	 * @return number of marked cells
 	 */
 	public int numOfMarkedCells() {
-		return MC.size();
+		return MN;
+	}
+
+	/**
+	 * Returns the 64-bit Zobrist key of the current position.
+	 * <p>
+	 * The key is updated incrementally by <code>markColumn</code> and
+	 * <code>unmarkColumn</code>. Boards with the same size get the same keys,
+	 * so the key of a position does not depend on the board object or on the
+	 * order of the moves that reached it.
+	 * </p>
+	 *
+	 * @return Zobrist key of the position
+	 */
+	public long hashKey() {
+		return HK;
+	}
+
+	/**
+	 * Returns the Zobrist key the position would have if the current player
+	 * marked a column, without marking it.
+	 *
+	 * @param col column number
+	 *
+	 * @return Zobrist key of the position after the move
+	 * @throws IndexOutOfBoundsException If col is outside the board or full
+	 */
+	public long hashKeyAfter(int col) throws IndexOutOfBoundsException {
+		if (fullColumn(col))
+			throw new IndexOutOfBoundsException("Column " + col + " is full or outside the board");
+		return HK ^ G.ZK[currentPlayer * N * H + col * H + HT[col]];
+	}
+
+	/**
+	 * Turns the line counters on or off.
+	 * <p>
+	 * A line is a window of X aligned cells (horizontally, vertically or
+	 * diagonally) where a player could still win. When line tracking is on, the
+	 * board keeps the number of cells of each player in every line, and
+	 * <code>markColumn</code>/<code>unmarkColumn</code> update only the lines
+	 * through the marked cell. Copies and forks inherit the setting.
+	 * </p>
+	 *
+	 * @param on true to keep the line counters up to date
+	 */
+	public void setLineTracking(boolean on) {
+		if (!on) {
+			LN = LH = LW = null;
+		} else if (LN == null) {
+			LN = new int[2 * G.numOfLines()];
+			LH = new int[(X + 1) * (X + 1)];
+			countLines();
+		}
+	}
+
+	/**
+	 * Checks whether the line counters are kept up to date
+	 *
+	 * @return true if line tracking is on
+	 */
+	public boolean isLineTracking() {
+		return LN != null;
+	}
+
+	/**
+	 * Returns the number of lines (windows of X aligned cells) in the board
+	 *
+	 * @return number of lines
+	 * @throws IllegalStateException If line tracking is off
+	 */
+	public int numOfLines() throws IllegalStateException {
+		checkLineTracking();
+		return LN.length / 2;
+	}
+
+	/**
+	 * Returns the number of lines holding exactly <code>n1</code> cells of P1
+	 * and <code>n2</code> cells of P2
+	 *
+	 * @param n1 cells of P1, between 0 and X
+	 * @param n2 cells of P2, between 0 and X
+	 *
+	 * @return number of lines
+	 * @throws IllegalStateException If line tracking is off
+	 */
+	public int lineCount(int n1, int n2) throws IllegalStateException {
+		checkLineTracking();
+		return n1 + n2 > X ? 0 : LH[n1 * (X + 1) + n2];
+	}
+
+	/**
+	 * Sets the weights of the lines, used to keep their weighted sum.
+	 * <p>
+	 * The weight of a line depends only on the number of cells of each player
+	 * it holds: <code>weights[n1*(X+1)+n2]</code> is the weight of a line with
+	 * <code>n1</code> cells of P1 and <code>n2</code> of P2. The sum is updated
+	 * with the line counters, so <code>lineValue()</code> takes constant time.
+	 * Copies and forks inherit the weights.
+	 * </p>
+	 *
+	 * @param weights weights of the lines, or null to remove them
+	 *
+	 * @throws IllegalStateException If line tracking is off
+	 * @throws IllegalArgumentException If weights does not have (X+1)*(X+1) elements
+	 */
+	public void setLineWeights(int[] weights) throws IllegalStateException, IllegalArgumentException {
+		checkLineTracking();
+		if (weights == null) {
+			LW = null;
+			return;
+		}
+		if (weights.length != (X + 1) * (X + 1))
+			throw new IllegalArgumentException("Expected " + (X + 1) * (X + 1) + " weights");
+		LW = weights.clone();
+		sumLineWeights();
+	}
+
+	/**
+	 * Returns the sum of the weights of all the lines
+	 *
+	 * @return weighted sum of the line counters
+	 * @throws IllegalStateException If no weights are set
+	 */
+	public long lineValue() throws IllegalStateException {
+		if (LW == null)
+			throw new IllegalStateException("Line weights are not set");
+		return LV;
+	}
+
+	/**
+	 * Returns the number of lines holding exactly <code>k</code> cells of a
+	 * player and none of the opponent
+	 *
+	 * @param player player index (0 or 1)
+	 * @param k      cells of the player, between 0 and X
+	 *
+	 * @return number of lines still open for the player
+	 * @throws IllegalStateException If line tracking is off
+	 */
+	public int openLines(int player, int k) throws IllegalStateException {
+		return player == 0 ? lineCount(k, 0) : lineCount(0, k);
 	}
 
 	/**
@@ -204,42 +573,132 @@ public class CXBoard {
 			throw new IllegalStateException("Game ended!");
 		} else if (!(0 <= col && col < N)) { // Column index out of matrix bounds
 			throw new IndexOutOfBoundsException("Index " + col + " out of matrix bounds\n" + "Column must be between 0 and " + (N - 1));
-		} else if (RP[col] == -1) {          // Column full
+		} else if (HT[col] == M) {           // Column full
 			throw new IllegalStateException("Column " + col + " is full.");
 		} else {
-			int row = RP[col]--;
-			if (RP[col] == -1) AC.remove(col);
-			B[row][col] = Player[currentPlayer];
-			CXCell newc = new CXCell(row, col, Player[currentPlayer]);
-			MC.add(newc); // Add move to the history
-
-			currentPlayer = (currentPlayer + 1) % 2;
+			int p = currentPlayer;
+			int q = place(col);
 
-			if (isWinningMove(row, col))
-				gameState = B[row][col] == CXCellState.P1 ? CXGameState.WINP1 : CXGameState.WINP2;
-			else if (MC.size() == M * N)
+			if (isWinningMove(p, q))
+				gameState = p == 0 ? CXGameState.WINP1 : CXGameState.WINP2;
+			else if (MN == M * N)
 				gameState = CXGameState.DRAW;
 
 			return gameState;
 		}
 	}
 
+	/**
+	 * Resets the board and marks a sequence of columns without checking for wins
+	 * after every move: the game state is computed once for the final position.
+	 *
+	 * @param cols columns in the order they are marked
+	 * @param n    number of columns
+	 *
+	 * @throws IllegalArgumentException If a column is out of bounds or full, or the
+	 *                                  position is not reachable
+	 */
+	void load(int[] cols, int n) throws IllegalArgumentException {
+		reset();
+		int q = 0; // bit of the last move
+		for (int k = 0; k < n; k++) {
+			int col = cols[k];
+			if (col < 0 || col >= N || HT[col] == M) {
+				reset();
+				throw new IllegalArgumentException("Move " + (k + 1) + ": column " + col + " is out of bounds or full");
+			}
+			q = place(col);
+		}
+		gameState = finalState();
+		if (gameState == CXGameState.WINP1 || gameState == CXGameState.WINP2) {
+			// the last move must complete the first line of the winner
+			int w = (currentPlayer + 1) % 2 * W + (q >>> 6);
+			P[w] &= ~(1L << q);
+			boolean before = hasLine((currentPlayer + 1) % 2);
+			P[w] |= 1L << q;
+			if (before) {
+				reset();
+				throw new IllegalArgumentException("Not a reachable position: the game was won before move " + n);
+			}
+		}
+	}
+
+	/**
+	 * Resets the board to a position given as bitboard words.
+	 * <p>
+	 * The words use the layout of <code>playerMask</code>: W words for P1
+	 * followed by W words for P2. The move history is not available, so the
+	 * loaded position cannot be undone.
+	 * </p>
+	 *
+	 * @param words 2*W bitboard words
+	 *
+	 * @throws IllegalArgumentException If the words do not describe a reachable position
+	 */
+	void load(long[] words) throws IllegalArgumentException {
+		if (words.length != 2 * W)
+			throw new IllegalArgumentException("Expected " + (2 * W) + " words, found " + words.length);
+		reset();
+		System.arraycopy(words, 0, P, 0, 2 * W);
+
+		int cells = 0;
+		for (int j = 0; j < N; j++) {
+			int h = 0;
+			for (int h0 = 0; h0 < M; h0 += 64) {
+				long p1 = columnBits(0, j, h0), p2 = columnBits(1, j, h0), c = p1 | p2;
+				if ((p1 & p2) != 0 || (h < h0 && c != 0) || (c & (c + 1)) != 0) {
+					reset();
+					throw new IllegalArgumentException("Column " + j + " is not a stack of cells");
+				}
+				h += Long.bitCount(c);
+			}
+			HT[j] = h;
+			if (h == M) AC[j >>> 6] &= ~(1L << j);
+			cells += h;
+		}
+
+		int n1 = 0, n2 = 0;
+		for (int w = 0; w < W; w++) {
+			n1 += Long.bitCount(P[w]);
+			n2 += Long.bitCount(P[W + w]);
+		}
+		if (n1 + n2 != cells || (n1 != n2 && n1 != n2 + 1)) {
+			reset();
+			throw new IllegalArgumentException("Not a valid position: " + n1 + " cells of P1, " + n2 + " cells of P2");
+		}
+
+		for (int p = 0; p < 2; p++)
+			for (int w = 0; w < W; w++)
+				for (long b = P[p * W + w]; b != 0; b &= b - 1)
+					HK ^= G.ZK[p * N * H + (w << 6) + Long.numberOfTrailingZeros(b)];
+		if (LN != null)
+			countLines();
+
+		MN = MB = cells;
+		if (MN > 0) MC[MN - 1] = -1; // last move unknown
+		currentPlayer = MN % 2;
+		gameState = finalState();
+	}
+
 	/**
 	 * Undo last move
 	 *
 	 * @throws IllegalStateException If there is no move to undo
 	 */
 	public void unmarkColumn() throws IllegalStateException {
-		if (MC.size() == 0) {
+		if (MN == MB) {
 			throw new IllegalStateException("No move to undo");
 		} else {
-			CXCell oldc = MC.removeLast();
-
-			B[oldc.i][oldc.j] = CXCellState.FREE;
-			RP[oldc.j]++;
-			if(RP[oldc.j] == 0) AC.add(oldc.j); 
+			int col = MC[--MN];
 
 			currentPlayer = (currentPlayer + 1) % 2;
+
+			if(HT[col] == M) AC[col >>> 6] |= 1L << col;
+			int q = col * H + --HT[col];
+			P[currentPlayer * W + (q >>> 6)] &= ~(1L << q);
+			HK ^= G.ZK[currentPlayer * N * H + q];
+			if (LN != null) addToLines(currentPlayer, q, -1);
+
 			gameState = CXGameState.OPEN;
 		}
 	}
@@ -248,13 +707,21 @@ public class CXBoard {
 	 * Returns the marked cells list in array format.
 	 * <p>
 	 * This is the history of the game: the first move is in the array head, the
-	 * last move in the array tail.
+	 * last move in the array tail. On a board obtained with <code>fork()</code>
+	 * only the moves marked after the fork point are listed.
 	 * </p>
 	 * 
 	 * @return List of marked cells
 	 */
 	public CXCell[] getMarkedCells() {
-		return MC.toArray(new CXCell[MC.size()]);
+		CXCell[] C = new CXCell[MN - MB];
+		int[] h = HT.clone();
+
+		for (int k = MN - 1; k >= MB; k--) {
+			int j = MC[k];
+			C[k - MB] = cell(k, M - h[j]--, j);
+		}
+		return C;
 	}
 
 	/**
@@ -266,69 +733,242 @@ public class CXBoard {
    * @return List of available column indexes 
    */
   public Integer[] getAvailableColumns() {
-		return AC.toArray(new Integer[AC.size()]);
+		int n = 0;
+		for (long w : AC)
+			n += Long.bitCount(w);
+
+		Integer[] C = new Integer[n];
+		for (int w = 0, k = 0; w < AC.length; w++)
+			for (long b = AC[w]; b != 0; b &= b - 1)
+				C[k++] = (w << 6) + Long.numberOfTrailingZeros(b);
+		return C;
   }
 
 	/**
    * Returns a copy of the main board
+   * <p>
+   * The matrix is allocated at every call: search code should read the board
+   * through the <code>CXBoardView</code> accessors instead.
+   * </p>
    *
    * @return An MxN matrix of cell statest
    */
 	public CXCellState[][] getBoard() {
 		CXCellState[][] C = new CXCellState[M][N];
 
-		for(int i = 0; i < M; i++)
-			for(int j = 0; j < N; j++)
-				C[i][j] = B[i][j];		
+		for(int j = 0; j < N; j++)
+			for(int h = 0; h < M; h += 64) {
+				long p1 = columnBits(0, j, h), p2 = columnBits(1, j, h);
+				for(int k = 0; k < 64 && h + k < M; k++)
+					C[M - 1 - h - k][j] = (p1 >>> k & 1) != 0 ? CXCellState.P1
+							: (p2 >>> k & 1) != 0 ? CXCellState.P2 : CXCellState.FREE;
+			}
 
 		return C;
 	}
 
 	/**
 	 * Returns a copy of the CXBoard object
+	 * <p>
+	 * The copy is structural: the bitboards, the column heights, the move
+	 * history and the hash key are copied as arrays, without replaying the moves.
+	 * </p>
 	 *
 	 * @return A CXBoard
 	 */
 	public CXBoard copy() {
-		CXBoard C = new CXBoard(M,N,X);
-		for(CXCell c : this.getMarkedCells())
-			C.markColumn(c.j);
-		return C;
-  }
+		return new CXBoard(this, true);
+	}
+
+	/**
+	 * Returns a copy of the current position for speculative searches.
+	 * <p>
+	 * The fork shares the immutable tables of this board and copies only the
+	 * position (bitboards, column heights, hash key and game state), so its cost
+	 * does not depend on the number of moves played. The move history is not
+	 * copied: moves marked on the fork can be undone, but the fork cannot undo
+	 * past the position it was created from, and <code>getMarkedCells</code>
+	 * lists only the moves marked after that point.
+	 * </p>
+	 *
+	 * @return A CXBoard positioned at the current state of this board
+	 */
+	public CXBoard fork() {
+		return new CXBoard(this, false);
+	}
 
 
-	// Check winning state from cell i, j
-	private boolean isWinningMove(int i, int j) {
-		CXCellState s = B[i][j];
-		int n;
+	private void checkLineTracking() throws IllegalStateException {
+		if (LN == null)
+			throw new IllegalStateException("Line tracking is off");
+	}
 
-		// Useless pedantic check
-		if (s == CXCellState.FREE)
-			return false;
+	// Recomputes the line counters from the bitboards
+	private void countLines() {
+		Arrays.fill(LN, 0);
+		Arrays.fill(LH, 0);
+		LH[0] = LN.length / 2;
+		for (int p = 0; p < 2; p++)
+			for (int q = 0; q < N * H; q++)
+				if (bit(p, q))
+					addToLines(p, q, 1);
+		if (LW != null)
+			sumLineWeights();
+	}
 
-		// Horizontal check
-		n = 1;
-		for (int k = 1; j-k >= 0 && B[i][j-k] == s; k++) n++; // backward check
-		for (int k = 1; j+k <  N && B[i][j+k] == s; k++) n++; // forward check
-		if (n >= X) return true;
-
-		// Vertical check
-		n = 1;
-		for (int k = 1; i+k <  M && B[i+k][j] == s; k++) n++;
-		if (n >= X) return true;
-
-		// Diagonal check
-		n = 1;
-		for (int k = 1; i-k >= 0 && j-k >= 0 && B[i-k][j-k] == s; k++) n++; // backward check
-		for (int k = 1; i+k <  M && j+k <  N && B[i+k][j+k] == s; k++) n++; // forward check
-		if (n >= X) return true;
-
-		// Anti-diagonal check
-		n = 1;
-		for (int k = 1; i-k >= 0 && j+k <  N && B[i-k][j+k] == s; k++) n++; // backward check
-		for (int k = 1; i+k <  M && j-k >= 0 && B[i+k][j-k] == s; k++) n++; // forward check
-		if (n >= X) return true;
+	private void sumLineWeights() {
+		LV = 0;
+		for (int c = 0; c < LH.length; c++)
+			LV += (long) LH[c] * LW[c];
+	}
+
+	// Adds (v = 1) or removes (v = -1) a cell of player p to the lines through bit q
+	private void addToLines(int p, int q, int v) {
+		int L = LN.length / 2, o = p * L, r = p == 0 ? X + 1 : 1;
+		for (int k = G.LS[q], end = G.LS[q + 1]; k < end; k++) {
+			int l = G.LI[k];
+			int c = LN[l] * (X + 1) + LN[L + l];
+			LH[c]--;
+			LH[c + v * r]++;
+			LN[o + l] += v;
+			if (LW != null) LV += LW[c + v * r] - LW[c];
+		}
+	}
+
+	// Marks the first free cell of col for the current player, without checks,
+	// and passes the turn. Returns the bit of the marked cell.
+	private int place(int col) {
+		int p = currentPlayer;
+		int q = col * H + HT[col]++;
+		if (HT[col] == M) AC[col >>> 6] &= ~(1L << col);
+		P[p * W + (q >>> 6)] |= 1L << q;
+		HK ^= G.ZK[p * N * H + q];
+		if (LN != null) addToLines(p, q, 1);
+		MC[MN++] = col; // Add move to the history
+
+		currentPlayer = (currentPlayer + 1) % 2;
+		return q;
+	}
+
+	// Game state of the position from scratch. Only the last player to move can
+	// have X aligned cells: a line of the player to move would have ended the
+	// game before the last move.
+	private CXGameState finalState() throws IllegalArgumentException {
+		int last = (currentPlayer + 1) % 2;
+		if (hasLine(currentPlayer)) {
+			reset();
+			throw new IllegalArgumentException("Not a reachable position: P" + (currentPlayer + 1)
+					+ " has a line but the game went on");
+		} else if (hasLine(last))
+			return last == 0 ? CXGameState.WINP1 : CXGameState.WINP2;
+		else if (MN == M * N)
+			return CXGameState.DRAW;
+		else
+			return CXGameState.OPEN;
+	}
 
+	// Check whether player p has X aligned cells anywhere in the board
+	private boolean hasLine(int p) {
+		if (W == 1) {
+			long b = P[p];
+			return hasRun(b, 1) || hasRun(b, H) || hasRun(b, H + 1) || hasRun(b, H - 1);
+		}
+		for (int l = 0, L = G.numOfLines(); l < L; l++) {
+			int k = 0;
+			while (k < X && bit(p, G.LC[l * X + k])) k++;
+			if (k == X)
+				return true;
+		}
 		return false;
 	}
+
+	// Flyweight cell marked by the k-th move (players alternate from P1)
+	private CXCell cell(int k, int i, int j) {
+		return G.CL[((k & 1) * M + i) * N + j];
+	}
+
+	// Tests bit q of player p
+	private boolean bit(int p, int q) {
+		return (P[p * W + (q >>> 6)] & (1L << q)) != 0;
+	}
+
+	// Logical right shift that clears everything when shifting out the word
+	private static long shr(long v, int s) {
+		return s < 64 ? v >>> s : 0L;
+	}
+
+	// Left shift that clears everything when shifting out the word
+	private static long shl(long v, int s) {
+		return s < 64 ? v << s : 0L;
+	}
+
+	private void checkColumnMask() throws IllegalStateException {
+		if (N > 64)
+			throw new IllegalStateException("Column masks need at most 64 columns");
+	}
+
+	// Next free cell of every column that is not full (W == 1)
+	private long playableCells() {
+		return (P[0] + P[1] + G.BM) & G.FM;
+	}
+
+	// Columns of the bits in a mask with at most one bit per column
+	private long columnsOf(long cells) {
+		long cols = 0L;
+		for (; cells != 0; cells &= cells - 1)
+			cols |= 1L << (Long.numberOfTrailingZeros(cells) / H);
+		return cols;
+	}
+
+	// Free cells that would complete a line of X symbols of player p (W == 1).
+	// Along each direction d, a cell wins if the a cells before it and the
+	// X-1-a cells after it belong to p, for some a: RS[k] marks the cells
+	// followed by k cells of p, while l marks those preceded by a cells of p.
+	private long winningCells(int p) {
+		if (RS == null)
+			RS = new long[X];
+		long b = P[p], win = 0L;
+		for (int dir = 0; dir < 4; dir++) {
+			int d = dir == 0 ? 1 : dir == 1 ? H : dir == 2 ? H + 1 : H - 1;
+			RS[0] = -1L;
+			for (int k = 1; k < X; k++)
+				RS[k] = RS[k - 1] & shr(b, k * d);
+			long l = -1L;
+			for (int a = 0; a < X && l != 0; a++) {
+				if (a > 0)
+					l &= shl(b, a * d);
+				win |= l & RS[X - 1 - a];
+			}
+		}
+		return win & ~(P[0] | P[1]) & G.FM;
+	}
+
+	// Check winning state from bit q of player p
+	private boolean isWinningMove(int p, int q) {
+		if (W == 1)
+			return hasLine(p);
+		return runLength(p, q, 0, 1) >= X || runLength(p, q, 1, H) >= X || runLength(p, q, 2, H + 1) >= X
+				|| runLength(p, q, 3, H - 1) >= X;
+	}
+
+	// True if b contains X aligned bits at distance d (shift-and-mask by doubling)
+	private boolean hasRun(long b, int d) {
+		int len = 1;
+		while (b != 0 && 2 * len <= X) {
+			b &= shr(b, len * d);
+			len *= 2;
+		}
+		if (len < X)
+			b &= shr(b, (X - len) * d);
+		return b != 0;
+	}
+
+	// Number of aligned bits of player p through bit q along direction dir (bit
+	// distance d), within the precomputed reach of q
+	private int runLength(int p, int q, int dir, int d) {
+		int n = 1, r = 8 * q + 2 * dir;
+		for (int k = G.RE[r], b = q - d; k > 0 && bit(p, b); k--, b -= d) n++;     // backward check
+		for (int k = G.RE[r + 1], b = q + d; k > 0 && bit(p, b); k--, b += d) n++; // forward check
+		return n;
+	}
 }
@@ -0,0 +1,463 @@
+/*
+ *  Copyright (C) 2022 Lamberto Colazzo
+ *  
+ *  This file is part of the ConnectX software developed for the
+ *  Intern ship of the course "Information technology", University of Bologna
+ *  A.Y. 2021-2022.
+ *
+ *  ConnectX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This  is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details; see <https://www.gnu.org/licenses/>.
+ */
+
+package connectx;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact encodings of <code>CXBoard</code> positions.
+ * <p>
+ * Three formats are supported:
+ * </p>
+ * <ul>
+ * <li>MOVES: the move history as text, one character per move (columns
+ * 1-9, then a-z and A-Z for columns 10-61), compatible with the position
+ * files of the gamesolver.org Connect 4 solver</li>
+ * <li>VARINT: the move history as binary, the number of moves followed by
+ * the columns, each as an unsigned LEB128 varint (one byte per move up to
+ * 128 columns)</li>
+ * <li>PACKED: the position as fixed-width bitboards, the 2*W words of
+ * <code>CXBoardView.playerMask</code> (P1 words, then P2 words), without
+ * history</li>
+ * </ul>
+ * <p>
+ * Decoding marks the cells without checking for wins after every move: the
+ * game state is computed once for the final position. The <code>Reader</code>
+ * and <code>Writer</code> classes stream positions in any of the formats,
+ * reusing the same board for every position.
+ * </p>
+ *
+ * @see CXBoard CXBoard
+ */
+public final class CXBoardCodec {
+
+	/**
+	 * Position encodings
+	 */
+	public enum Format {
+		/**
+		 * Move history as text, one line per position
+		 */
+		MOVES,
+		/**
+		 * Move history as varints
+		 */
+		VARINT,
+		/**
+		 * Fixed-width bitboards
+		 */
+		PACKED
+	}
+
+	private static final String COLUMNS = "123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	// Column of each MOVES character, -1 if not a column
+	private static final byte[] COLUMN_OF = new byte[128];
+
+	static {
+		Arrays.fill(COLUMN_OF, (byte) -1);
+		for (int c = 0; c < COLUMNS.length(); c++)
+			COLUMN_OF[COLUMNS.charAt(c)] = (byte) c;
+	}
+
+	private CXBoardCodec() {
+	}
+
+	/**
+	 * Encodes the move history of a board as text
+	 *
+	 * @param B board
+	 *
+	 * @return move string
+	 * @throws IllegalArgumentException If the board has more than 61 columns or its history is not available
+	 */
+	public static String encodeMoves(CXBoard B) throws IllegalArgumentException {
+		checkHistory(B);
+		if (B.N > COLUMNS.length())
+			throw new IllegalArgumentException("MOVES format supports at most " + COLUMNS.length() + " columns");
+		char[] s = new char[B.MN];
+		for (int k = 0; k < B.MN; k++)
+			s[k] = COLUMNS.charAt(B.MC[k]);
+		return new String(s);
+	}
+
+	/**
+	 * Resets a board to the position of a move string
+	 *
+	 * @param s move string
+	 * @param B board
+	 *
+	 * @throws IllegalArgumentException If the move string is not valid for the board
+	 */
+	public static void decodeMoves(CharSequence s, CXBoard B) throws IllegalArgumentException {
+		int[] cols = new int[s.length()];
+		for (int k = 0; k < cols.length; k++)
+			cols[k] = column(s.charAt(k));
+		B.load(cols, cols.length);
+	}
+
+	/**
+	 * Encodes the move history of a board as varints
+	 *
+	 * @param B board
+	 *
+	 * @return encoded moves
+	 * @throws IllegalArgumentException If the history of the board is not available
+	 */
+	public static byte[] encodeVarint(CXBoard B) throws IllegalArgumentException {
+		checkHistory(B);
+		byte[] buf = new byte[5 * (B.MN + 1)];
+		int n = putVarint(buf, 0, B.MN);
+		for (int k = 0; k < B.MN; k++)
+			n = putVarint(buf, n, B.MC[k]);
+		return Arrays.copyOf(buf, n);
+	}
+
+	/**
+	 * Resets a board to the position of varint-encoded moves
+	 *
+	 * @param b encoded moves
+	 * @param B board
+	 *
+	 * @throws IllegalArgumentException If the encoded moves are not valid for the board
+	 */
+	public static void decodeVarint(byte[] b, CXBoard B) throws IllegalArgumentException {
+		int[] pos = {0};
+		int n = getVarint(b, pos);
+		if (n > B.M * B.N)
+			throw new IllegalArgumentException("Illegal number of moves: " + n);
+		int[] cols = new int[n];
+		for (int k = 0; k < n; k++)
+			cols[k] = getVarint(b, pos);
+		B.load(cols, n);
+	}
+
+	/**
+	 * Encodes a position as fixed-width bitboards
+	 *
+	 * @param B board
+	 *
+	 * @return 2*W bitboard words
+	 */
+	public static long[] encodePacked(CXBoardView B) {
+		int W = B.words();
+		long[] words = new long[2 * W];
+		for (int w = 0; w < W; w++) {
+			words[w] = B.playerMask(0, w);
+			words[W + w] = B.playerMask(1, w);
+		}
+		return words;
+	}
+
+	/**
+	 * Resets a board to a position given as fixed-width bitboards. The loaded
+	 * position has no move history.
+	 *
+	 * @param words 2*W bitboard words
+	 * @param B     board
+	 *
+	 * @throws IllegalArgumentException If the words do not describe a valid position
+	 */
+	public static void decodePacked(long[] words, CXBoard B) throws IllegalArgumentException {
+		B.load(words);
+	}
+
+	/**
+	 * Streaming reader of positions.
+	 * <p>
+	 * Every call to <code>next</code> loads the next position into the board
+	 * passed by the caller, so that reading millions of positions allocates
+	 * nothing per position. In the MOVES format, a line holds a move string
+	 * optionally followed by blanks and a label (e.g. the position score of the
+	 * gamesolver.org test sets), available through <code>label</code>.
+	 * </p>
+	 */
+	public static final class Reader implements Closeable {
+		private final Format        F;
+		private final InputStream   in;
+		private final byte[]        buf = new byte[1 << 16];
+		private final StringBuilder label = new StringBuilder();
+		private int    pos, lim;
+		private int[]  cols  = new int[0];
+		private long[] words = new long[0];
+		private long   count;
+
+		/**
+		 * Creates a reader
+		 *
+		 * @param in     input stream (buffered by the reader)
+		 * @param format position format
+		 */
+		public Reader(InputStream in, Format format) {
+			this.in = in;
+			this.F = format;
+		}
+
+		/**
+		 * Loads the next position into a board
+		 *
+		 * @param B board of the right size, reset before loading
+		 *
+		 * @return false at the end of the stream
+		 * @throws IOException If the stream cannot be read or ends inside a position
+		 * @throws IllegalArgumentException If a position is not valid for the board
+		 */
+		public boolean next(CXBoard B) throws IOException, IllegalArgumentException {
+			if (cols.length != B.M * B.N)
+				cols = new int[B.M * B.N];
+			boolean found;
+			switch (F) {
+				case MOVES:
+					found = nextMoves(B);
+					break;
+				case VARINT:
+					found = nextVarint(B);
+					break;
+				default:
+					found = nextPacked(B);
+			}
+			if (found)
+				count++;
+			return found;
+		}
+
+		/**
+		 * Returns the label of the last position read (MOVES format only)
+		 *
+		 * @return label, empty if none
+		 */
+		public String label() {
+			return label.toString();
+		}
+
+		/**
+		 * Returns the number of positions read so far
+		 *
+		 * @return number of positions
+		 */
+		public long count() {
+			return count;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+
+		// Next byte of the stream, -1 at the end
+		private int read() throws IOException {
+			if (pos == lim) {
+				lim = in.read(buf, 0, buf.length);
+				pos = 0;
+				if (lim <= 0) {
+					lim = 0;
+					return -1;
+				}
+			}
+			return buf[pos++] & 0xFF;
+		}
+
+		private boolean nextMoves(CXBoard B) throws IOException {
+			int c, n;
+			do { // skip empty lines
+				c = read();
+			} while (c == '\n' || c == '\r');
+			if (c < 0)
+				return false;
+
+			label.setLength(0);
+			for (n = 0; c >= 0 && c != '\n' && c != ' ' && c != '\t' && c != '\r'; c = read()) {
+				if (n == cols.length)
+					throw new IllegalArgumentException("Position " + (count + 1) + ": too many moves");
+				cols[n++] = column(c);
+			}
+			while (c == ' ' || c == '\t')
+				c = read();
+			for (; c >= 0 && c != '\n' && c != '\r'; c = read())
+				label.append((char) c);
+			B.load(cols, n);
+			return true;
+		}
+
+		private boolean nextVarint(CXBoard B) throws IOException {
+			int c = read();
+			if (c < 0)
+				return false;
+			int n = varint(c);
+			if (n > cols.length)
+				throw new IllegalArgumentException("Position " + (count + 1) + ": illegal number of moves " + n);
+			for (int k = 0; k < n; k++)
+				cols[k] = varint(read());
+			B.load(cols, n);
+			return true;
+		}
+
+		private boolean nextPacked(CXBoard B) throws IOException {
+			if (words.length != 2 * B.W)
+				words = new long[2 * B.W];
+			for (int w = 0; w < words.length; w++) {
+				long v = 0;
+				for (int k = 0; k < 8; k++) {
+					int b = read();
+					if (b < 0 && w == 0 && k == 0)
+						return false;
+					else if (b < 0)
+						throw new EOFException("Position " + (count + 1) + " is truncated");
+					v = (v << 8) | b;
+				}
+				words[w] = v;
+			}
+			B.load(words);
+			return true;
+		}
+
+		// Reads an unsigned LEB128 varint starting with byte b (-1 at the end of
+		// the stream); the value fits in a non-negative int
+		private int varint(int b) throws IOException, IllegalArgumentException {
+			int v = 0;
+			for (int shift = 0; shift < 35; shift += 7, b = read()) {
+				if (b < 0)
+					throw new EOFException("Position " + (count + 1) + " is truncated");
+				if (shift == 28 && (b & 0xF8) != 0) // only 3 bits left below the sign
+					break;
+				v |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return v;
+			}
+			throw new IllegalArgumentException("Position " + (count + 1) + ": malformed varint");
+		}
+	}
+
+	/**
+	 * Streaming writer of positions
+	 */
+	public static final class Writer implements Closeable, Flushable {
+		private final Format           F;
+		private final DataOutputStream out;
+		private final byte[]           buf = new byte[5];
+
+		/**
+		 * Creates a writer
+		 *
+		 * @param out    output stream (buffered by the writer)
+		 * @param format position format
+		 */
+		public Writer(OutputStream out, Format format) {
+			this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+			this.F = format;
+		}
+
+		/**
+		 * Writes a position
+		 *
+		 * @param B board
+		 *
+		 * @throws IOException If the stream cannot be written
+		 * @throws IllegalArgumentException If the format needs a move history the board does not have
+		 */
+		public void write(CXBoard B) throws IOException, IllegalArgumentException {
+			write(B, null);
+		}
+
+		/**
+		 * Writes a position with a label (the label is ignored by binary formats)
+		 *
+		 * @param B     board
+		 * @param label label written after the move string, or null
+		 *
+		 * @throws IOException If the stream cannot be written
+		 * @throws IllegalArgumentException If the format needs a move history the board does not have
+		 */
+		public void write(CXBoard B, String label) throws IOException, IllegalArgumentException {
+			switch (F) {
+				case MOVES:
+					out.write(encodeMoves(B).getBytes(StandardCharsets.US_ASCII));
+					if (label != null && !label.isEmpty()) {
+						out.write(' ');
+						out.write(label.getBytes(StandardCharsets.UTF_8));
+					}
+					out.write('\n');
+					break;
+				case VARINT:
+					checkHistory(B);
+					out.write(buf, 0, putVarint(buf, 0, B.MN));
+					for (int k = 0; k < B.MN; k++)
+						out.write(buf, 0, putVarint(buf, 0, B.MC[k]));
+					break;
+				default:
+					for (int k = 0; k < 2 * B.W; k++)
+						out.writeLong(B.P[k]);
+			}
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	private static void checkHistory(CXBoard B) throws IllegalArgumentException {
+		if (B.MB > 0)
+			throw new IllegalArgumentException("Move history is not available");
+	}
+
+	private static int column(int c) throws IllegalArgumentException {
+		int col = c < 128 ? COLUMN_OF[c] : -1;
+		if (col < 0)
+			throw new IllegalArgumentException("Illegal move character '" + (char) c + "'");
+		return col;
+	}
+
+	// Writes v as an unsigned LEB128 varint at buf[n], returns the new offset
+	private static int putVarint(byte[] buf, int n, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf[n++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[n++] = (byte) v;
+		return n;
+	}
+
+	// Reads an unsigned LEB128 varint at b[pos[0]] and advances pos[0]
+	private static int getVarint(byte[] b, int[] pos) throws IllegalArgumentException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (pos[0] == b.length)
+				throw new IllegalArgumentException("Truncated varint moves");
+			int c = b[pos[0]++];
+			if (shift == 28 && (c & 0xF8) != 0) // only 3 bits left below the sign
+				break;
+			v |= (c & 0x7F) << shift;
+			if ((c & 0x80) == 0)
+				return v;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright (C) 2022 Lamberto Colazzo
+ *  
+ *  This file is part of the ConnectX software developed for the
+ *  Intern ship of the course "Information technology", University of Bologna
+ *  A.Y. 2021-2022.
+ *
+ *  ConnectX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This  is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details; see <https://www.gnu.org/licenses/>.
+ */
+
+package connectx;
+
+/**
+ * Read-only view of a <code>CXBoard</code>.
+ * <p>
+ * All accessors read the board in place and return primitive values, so they
+ * can be called at every node of a search without copying the grid. Cells are
+ * addressed either by row <code>i</code> (0 is the top row) and column
+ * <code>j</code>, or by their height <code>h = M-1-i</code> in the column.
+ * Players are identified by their index: 0 for P1, 1 for P2.
+ * </p>
+ *
+ * @see CXBoard CXBoard
+ */
+public interface CXBoardView {
+
+	/**
+	 * Returns the number of rows (M)
+	 *
+	 * @return board rows
+	 */
+	public int rows();
+
+	/**
+	 * Returns the number of columns (N)
+	 *
+	 * @return board columns
+	 */
+	public int columns();
+
+	/**
+	 * Returns the number of symbols to be aligned for a win (X)
+	 *
+	 * @return symbols to be aligned
+	 */
+	public int toAlign();
+
+	/**
+	 * Returns the owner of cell <code>i,j</code>
+	 *
+	 * @param i i-th row
+	 * @param j j-th column
+	 *
+	 * @return 0 (P1), 1 (P2) or -1 if the cell is free
+	 * @throws IndexOutOfBoundsException If <code>i,j</code> are out of matrix bounds
+	 */
+	public int cellOwner(int i, int j) throws IndexOutOfBoundsException;
+
+	/**
+	 * Returns the number of marked cells in column <code>j</code>
+	 *
+	 * @param j j-th column
+	 *
+	 * @return column height, between 0 and M
+	 */
+	public int columnHeight(int j);
+
+	/**
+	 * Returns up to 64 cells of column <code>j</code> marked by a player.
+	 * <p>
+	 * Bit <code>k</code> of the result is set if the cell at height
+	 * <code>h+k</code> (row <code>M-1-h-k</code>) is marked by
+	 * <code>player</code>.
+	 * </p>
+	 *
+	 * @param player player index (0 or 1)
+	 * @param j      j-th column
+	 * @param h      height of the first cell
+	 *
+	 * @return column bits
+	 */
+	public long columnBits(int player, int j, int h);
+
+	/**
+	 * Returns up to 64 cells of row <code>i</code> marked by a player.
+	 * <p>
+	 * Bit <code>k</code> of the result is set if cell <code>i,j+k</code> is
+	 * marked by <code>player</code>.
+	 * </p>
+	 *
+	 * @param player player index (0 or 1)
+	 * @param i      i-th row
+	 * @param j      first column
+	 *
+	 * @return row bits
+	 */
+	public long rowBits(int player, int i, int j);
+
+	/**
+	 * Returns the precomputed tables shared by the boards of this size
+	 *
+	 * @return board geometry
+	 */
+	public CXGeometry geometry();
+
+	/**
+	 * Returns the number of 64-bit words of a player bitboard
+	 *
+	 * @return number of words
+	 */
+	public int words();
+
+	/**
+	 * Returns a word of the bitboard of a player.
+	 * <p>
+	 * Bit <code>j*(M+1)+h</code> of the bitboard is the cell at height
+	 * <code>h</code> of column <code>j</code>; bit <code>j*(M+1)+M</code> is
+	 * always clear.
+	 * </p>
+	 *
+	 * @param player player index (0 or 1)
+	 * @param w      word index
+	 *
+	 * @return bitboard word
+	 */
+	public long playerMask(int player, int w);
+
+	/**
+	 * Returns a word of the occupancy bitboard (cells marked by either player)
+	 *
+	 * @param w word index
+	 *
+	 * @return bitboard word
+	 */
+	public long occupancyMask(int w);
+
+	/**
+	 * Returns the id of the player allowed to play next move.
+	 *
+	 * @return 0 (first player) or 1 (second player)
+	 */
+	public int currentPlayer();
+
+	/**
+	 * Returns the number of marked cells in the game board.
+	 *
+	 * @return number of marked cells
+	 */
+	public int numOfMarkedCells();
+
+	/**
+	 * Returns the 64-bit Zobrist key of the current position.
+	 *
+	 * @return Zobrist key of the position
+	 */
+	public long hashKey();
+}
@@ -0,0 +1,295 @@
+/*
+ *  Copyright (C) 2022 Lamberto Colazzo
+ *  
+ *  This file is part of the ConnectX software developed for the
+ *  Intern ship of the course "Information technology", University of Bologna
+ *  A.Y. 2021-2022.
+ *
+ *  ConnectX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This  is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details; see <https://www.gnu.org/licenses/>.
+ */
+
+package connectx;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed tables shared by all the boards of size MxN with X symbols to
+ * be aligned.
+ * <p>
+ * A geometry is built once per (M,N,X) and cached, so the boards of a
+ * tournament reuse it across games. It holds the bitboard layout used by
+ * <code>CXBoard</code>, the list of every line (window of X aligned cells)
+ * with the lines through each cell, the flyweight cells and the Zobrist keys.
+ * Cells are addressed by their bit index: <code>j*(M+1)+h</code> for the cell
+ * at height <code>h</code> (row <code>M-1-h</code>) of column <code>j</code>.
+ * </p>
+ *
+ * @see CXBoard CXBoard
+ */
+public final class CXGeometry {
+	/**
+	 * Board rows
+	 */
+	public final int M;
+
+	/**
+	 * Board columns
+	 */
+	public final int N;
+
+	/**
+	 * Number of symbols to be aligned (horizontally, vertically, diagonally) for a  win
+	 */
+	public final int X;
+
+	/**
+	 * Bits per column: M rows plus an always clear guard bit
+	 */
+	public final int H;
+
+	/**
+	 * Number of 64-bit words of a player bitboard
+	 */
+	public final int W;
+
+	// Directions (dj,dh) of the lines: vertical, horizontal, diagonal, anti-diagonal
+	static final int[] DJ = {0, 1, 1, 1};
+	static final int[] DH = {1, 0, 1, -1};
+
+	final CXCell CL[]; // Flyweight cells, indexed by (player*M + i)*N + j
+	final long   ZK[]; // Zobrist keys, indexed by player*N*H + bit
+	final int    RE[]; // Backward and forward reach (at most X-1) of bit q in direction d: RE[8*q + 2*d], RE[8*q + 2*d + 1]
+	final int    LS[]; // Offsets in LI, indexed by bit: the lines through bit q are LI[LS[q]] ... LI[LS[q+1]-1]
+	final int    LI[]; // Line ids
+	final int    LC[]; // Bits of each line, X per line
+	final long   LM[]; // Single-word mask of each line (null if W > 1)
+	final long   BM;   // Single-word mask of the bottom cells (0 if W > 1)
+	final long   FM;   // Single-word mask of all the cells, guard bits excluded (0 if W > 1)
+
+	private static final CXCellState[] Player = {CXCellState.P1, CXCellState.P2};
+
+	private static final ConcurrentHashMap<Long, CXGeometry> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the geometry of the MxN boards with X symbols to be aligned.
+	 * <p>
+	 * Geometries are built on first use and cached for the rest of the run.
+	 * </p>
+	 *
+	 * @param M Board rows
+	 * @param N Board columns
+	 * @param X Number of symbols to be aligned (horizontally, vertically, diagonally) for a win
+	 *
+	 * @return the shared geometry
+	 * @throws IllegalArgumentException If M,N,X are smaller than 1
+	 */
+	public static CXGeometry of(int M, int N, int X) throws IllegalArgumentException {
+		if (M <= 0)
+			throw new IllegalArgumentException("M cannot be smaller than 1");
+		if (N <= 0)
+			throw new IllegalArgumentException("N cannot be smaller than 1");
+		if (X <= 0)
+			throw new IllegalArgumentException("X cannot be smaller than 1");
+
+		long key = ((long) M << 42) | ((long) N << 21) | X;
+		return CACHE.computeIfAbsent(key, k -> new CXGeometry(M, N, X));
+	}
+
+	private CXGeometry(int M, int N, int X) {
+		this.M = M;
+		this.N = N;
+		this.X = X;
+		this.H = M + 1;
+		this.W = (N * H + 63) >>> 6;
+
+		CL = new CXCell[2 * M * N];
+		for (int p = 0; p < 2; p++)
+			for (int i = 0; i < M; i++)
+				for (int j = 0; j < N; j++)
+					CL[(p * M + i) * N + j] = new CXCell(i, j, Player[p]);
+
+		ZK = zobristKeys(2 * N * H);
+
+		RE = new int[8 * N * H];
+		for (int j = 0; j < N; j++)
+			for (int h = 0; h < M; h++)
+				for (int d = 0; d < 4; d++) {
+					RE[8 * (j * H + h) + 2 * d]     = reach(j, h, -DJ[d], -DH[d]);
+					RE[8 * (j * H + h) + 2 * d + 1] = reach(j, h, DJ[d], DH[d]);
+				}
+
+		// Every line starts from a cell and goes in one of the four directions.
+		// The first pass counts the lines through each bit, the second fills them.
+		int[] count = new int[N * H + 1];
+		int[] ls = null, lc = null, li = null;
+		int L = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			int id = 0;
+			for (int d = 0; d < 4; d++)
+				for (int j = 0; j + (X - 1) * DJ[d] < N; j++)
+					for (int h = 0; h < M; h++) {
+						int hEnd = h + (X - 1) * DH[d];
+						if (hEnd < 0 || hEnd >= M)
+							continue;
+						for (int k = 0; k < X; k++) {
+							int q = (j + k * DJ[d]) * H + h + k * DH[d];
+							if (pass == 0) {
+								count[q + 1]++;
+							} else {
+								lc[id * X + k] = q;
+								li[count[q]++] = id;
+							}
+						}
+						id++;
+					}
+			if (pass == 0) {
+				L = id;
+				for (int q = 0; q < N * H; q++)
+					count[q + 1] += count[q];
+				ls = count.clone();
+				lc = new int[L * X];
+				li = new int[count[N * H]];
+			}
+		}
+		LS = ls;
+		LC = lc;
+		LI = li;
+
+		if (W == 1) {
+			LM = new long[L];
+			for (int l = 0; l < L; l++)
+				for (int k = 0; k < X; k++)
+					LM[l] |= 1L << LC[l * X + k];
+		} else {
+			LM = null;
+		}
+
+		long bm = 0L, fm = 0L;
+		if (W == 1)
+			for (int j = 0; j < N; j++) {
+				bm |= 1L << (j * H);
+				fm |= ((1L << M) - 1) << (j * H);
+			}
+		BM = bm;
+		FM = fm;
+	}
+
+	/**
+	 * Returns the bit index of cell <code>i,j</code>
+	 *
+	 * @param i i-th row
+	 * @param j j-th column
+	 *
+	 * @return bit index
+	 */
+	public int bit(int i, int j) {
+		return j * H + M - 1 - i;
+	}
+
+	/**
+	 * Returns the number of lines (windows of X aligned cells)
+	 *
+	 * @return number of lines
+	 */
+	public int numOfLines() {
+		return LC.length / X;
+	}
+
+	/**
+	 * Returns the bit index of the k-th cell of a line
+	 *
+	 * @param line line id
+	 * @param k    cell position in the line, between 0 and X-1
+	 *
+	 * @return bit index
+	 */
+	public int lineBit(int line, int k) {
+		return LC[line * X + k];
+	}
+
+	/**
+	 * Returns the bitboard mask of a line.
+	 *
+	 * @param line line id
+	 *
+	 * @return line mask
+	 * @throws IllegalStateException If the bitboard does not fit in a single word
+	 */
+	public long lineMask(int line) throws IllegalStateException {
+		if (LM == null)
+			throw new IllegalStateException("Bitboard does not fit in a single word");
+		return LM[line];
+	}
+
+	/**
+	 * Returns the position of the first line through bit <code>q</code> in the
+	 * sequence of lines by bit.
+	 * <p>
+	 * The lines through bit <code>q</code> are <code>lineAt(k)</code> for
+	 * <code>lineOffset(q) &lt;= k &lt; lineOffset(q+1)</code>.
+	 * </p>
+	 *
+	 * @param q bit index, between 0 and N*H
+	 *
+	 * @return offset in the sequence of lines by bit
+	 */
+	public int lineOffset(int q) {
+		return LS[q];
+	}
+
+	/**
+	 * Returns the k-th line id of the sequence of lines by bit
+	 *
+	 * @param k offset in the sequence of lines by bit
+	 *
+	 * @return line id
+	 */
+	public int lineAt(int k) {
+		return LI[k];
+	}
+
+	/**
+	 * Returns the Zobrist key of a cell marked by a player
+	 *
+	 * @param player player index (0 or 1)
+	 * @param q      bit index
+	 *
+	 * @return Zobrist key
+	 */
+	public long zobrist(int player, int q) {
+		return ZK[player * N * H + q];
+	}
+
+	// Number of steps (at most X-1) from cell (j,h) in direction (dj,dh) inside the board
+	private int reach(int j, int h, int dj, int dh) {
+		int k = 0;
+		while (k < X - 1) {
+			int jj = j + (k + 1) * dj, hh = h + (k + 1) * dh;
+			if (jj < 0 || jj >= N || hh < 0 || hh >= M)
+				break;
+			k++;
+		}
+		return k;
+	}
+
+	// Pseudo-random keys from a fixed-seed SplitMix64 sequence
+	private static long[] zobristKeys(int n) {
+		long[] K = new long[n];
+		long x = 0x2545F4914F6CDD1DL;
+		for (int k = 0; k < n; k++) {
+			long z = (x += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			K[k] = z ^ (z >>> 31);
+		}
+		return K;
+	}
+}
@@ -27,6 +27,13 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
 /**
  * Runs a game against two CXPlayer classes and prints the game scores:
  * <ul>
@@ -42,6 +49,11 @@ import java.util.concurrent.TimeoutException;
  * -r rounds; Number of rounds</br>
  * -g graphic; Graphic terminal board -v Verbose
  * </p>
+ * <p>
+ * The search statistics of the players implementing CXSearchStats.Provider
+ * are summed over all the rounds and printed with the scores (every move and
+ * the time to each depth in verbose mode).
+ * </p>
  */
 public class CXPlayerTester {
 	private static int TIMEOUT = 10;
@@ -56,6 +68,9 @@ public class CXPlayerTester {
 
 	private static CXPlayer[] Player = new CXPlayer[2];
 
+	/** Search statistics of the players (CXSearchStats.Provider) over all the rounds */
+	private static CXSearchStats[] Stats = new CXSearchStats[2];
+
 	/** Scoring system */
 	private static int WINSCORE = 3;
 	private static int DRAWSCORE = 1;
@@ -119,9 +134,49 @@ public class CXPlayerTester {
 		}
 	}
 
+	/**
+	 * Java Flight Recorder event of a selectColumn call, lasting from the start
+	 * of the player's turn to its answer (or to the timeout)
+	 */
+	@Name("connectx.SelectColumn")
+	@Label("Select Column")
+	@Category({ "ConnectX", "Tester" })
+	@StackTrace(false)
+	private static class MoveEvent extends Event {
+		@Label("Player")
+		String player;
+
+		@Label("Player Number")
+		int number;
+
+		@Label("Move")
+		@Description("Number of the move in the game, from 1")
+		int move;
+
+		@Label("Column")
+		@Description("Selected column, -1 on timeout or exception")
+		int column;
+
+		@Label("Outcome")
+		String outcome;
+
+		void finish(int column, String outcome) {
+			if (shouldCommit()) {
+				this.column = column;
+				this.outcome = outcome;
+				commit();
+			}
+		}
+	}
+
 	private static GameState runGame() {
 		while (B.gameState() == CXGameState.OPEN) {
 			int curr = B.currentPlayer();
+			MoveEvent event = new MoveEvent();
+			event.player = Player[curr].playerName();
+			event.number = curr + 1;
+			event.move = B.numOfMarkedCells() + 1;
+			event.begin();
 			final ExecutorService executor = Executors.newSingleThreadExecutor();
 			final Future<Integer> task = executor.submit(new StoppablePlayer(Player[curr], B.copy()));
 			executor.shutdown(); // Makes the ExecutorService stop accepting new tasks
@@ -130,7 +185,9 @@ public class CXPlayerTester {
 
 			try {
 				c = task.get(TIMEOUT, TimeUnit.SECONDS);
+				event.finish(c, "selected");
 			} catch (TimeoutException ex) {
+				event.finish(-1, "timeout");
 				int n = 3; // Wait some more time to see if it stops
 				System.err.println(
 						"Player " + (curr + 1) + " (" + Player[curr].playerName() + ") interrupted due to timeout");
@@ -153,6 +210,7 @@ public class CXPlayerTester {
 					return curr == 0 ? GameState.ERRP1 : GameState.ERRP2;
 				}
 			} catch (Exception ex) {
+				event.finish(-1, "exception");
 				int n = 3; // Wait some more time to see if it stops
 				System.err.println(
 						"Player " + (curr + 1) + " (" + Player[curr].playerName() + ") interrupted due to exception");
@@ -179,6 +237,18 @@ public class CXPlayerTester {
 			if (!executor.isTerminated())
 				executor.shutdownNow();
 
+			if (Player[curr] instanceof CXSearchStats.Provider) {
+				CXSearchStats S = ((CXSearchStats.Provider) Player[curr]).lastSearchStats();
+				if (S != null) {
+					if (VERBOSE)
+						System.out.println("Player " + (curr + 1) + " (" + Player[curr].playerName() + ") stats: " + S);
+					if (Stats[curr] == null)
+						Stats[curr] = S;
+					else
+						Stats[curr].add(S);
+				}
+			}
+
 			try {
 				int r = 0;
 				B.markColumn(c);
@@ -295,6 +365,17 @@ public class CXPlayerTester {
 		System.err.println("  -v            Verbose. Default: " + VERBOSE);
 	}
 
+	private static void printStats(String name, CXSearchStats S) {
+		System.out.println(name + " Stats: " + S);
+		if (VERBOSE) {
+			System.out.print(name + " Time to depth (ms):");
+			for (int d = 1; d <= S.depth(); d++)
+				if (S.searchesToDepth(d) > 0)
+					System.out.printf(" %d:%.1f(%d)", d, S.timeToDepth(d) / 1e6, S.searchesToDepth(d));
+			System.out.println();
+		}
+	}
+
 	public static void main(String[] args) {
 		int P1SCORE = 0;
 		int P2SCORE = 0;
@@ -382,6 +463,9 @@ public class CXPlayerTester {
 				+ " Draw: " + STATP1[1] + " Error: " + STATP1[2]);
 		System.out.println(Player[1].playerName() + " Score: " + P2SCORE + " Won: " + STATP2[0] + " Lost: " + STATP1[0]
 				+ " Draw: " + STATP2[1] + " Error: " + STATP2[2]);
+		for (int k = 0; k < 2; k++)
+			if (Stats[k] != null)
+				printStats(Player[k].playerName(), Stats[k]);
 
 		System.exit(0);
 	}
@@ -0,0 +1,345 @@
+/*
+ *  Copyright (C) 2022 Lamberto Colazzo
+ *
+ *  This file is part of the ConnectX software developed for the
+ *  Intern ship of the course "Information technology", University of Bologna
+ *  A.Y. 2021-2022.
+ *
+ *  ConnectX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This  is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details; see <https://www.gnu.org/licenses/>.
+ */
+
+package connectx;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of the searches of a software player.
+ * <p>
+ * A player fills one object for every <code>selectColumn</code> call: the
+ * nodes it visited, the leaves it evaluated, the transposition table probes,
+ * hits and cutoffs, the depth it completed with the time and nodes needed to
+ * reach every depth, the principal variation, whether the time ran out
+ * before the search was complete and, for the players that keep them, the
+ * expected result of the selected column and the nodes kept from the previous
+ * searches. Objects can be added
+ * together, so that <code>CXPlayerTester</code> can aggregate the searches of
+ * a player across moves and rounds; averages are taken over the searches.
+ * </p>
+ */
+public class CXSearchStats {
+
+	/**
+	 * Implemented by the players that report the statistics of their searches
+	 */
+	public interface Provider {
+		/**
+		 * Returns the statistics of the last <code>selectColumn</code> call, a new
+		 * object for every call
+		 *
+		 * @return statistics, or null if the player did not search yet
+		 */
+		public CXSearchStats lastSearchStats();
+	}
+
+	private int  searches;   // Number of searches added together
+	private long nodes;      // Visited nodes
+	private long evals;      // Heuristic evaluations of the leaves
+	private long ttProbes;   // Transposition table probes
+	private long ttHits;     // Probes that found the position
+	private long ttCutoffs;  // Hits that ended the search of the node
+	private long time;       // Search time (nanoseconds)
+	private long depthSum;   // Sum of the completed depths
+	private int  maxDepth;   // Deepest completed depth
+	private int  pv[];       // Principal variation of the last search
+	private long DT[];       // Sum of the times to complete each depth (index depth - 1)
+	private long DN[];       // Sum of the nodes visited to complete each depth
+	private int  DC[];       // Number of searches that completed each depth
+	private double ebfSum;   // Sum of the logarithms of the effective branching factors
+	private int  ebfCount;   // Number of searches with a branching factor
+	private int  timeouts;   // Number of searches stopped by the time limit
+	private long reused;     // Nodes kept from the previous searches
+	private double valueSum; // Sum of the expected results of the selected columns
+	private int  valueCount; // Number of searches with an expected result
+
+	/**
+	 * Creates the statistics of one search, with all the counters to zero
+	 */
+	public CXSearchStats() {
+		searches = 1;
+		pv = new int[0];
+		DT = new long[0];
+		DN = new long[0];
+		DC = new int[0];
+	}
+
+	/**
+	 * Adds search counters
+	 *
+	 * @param nodes     visited nodes
+	 * @param evals     heuristic evaluations
+	 * @param ttProbes  transposition table probes
+	 * @param ttHits    probes that found the position
+	 * @param ttCutoffs hits that ended the search of the node
+	 */
+	public void count(long nodes, long evals, long ttProbes, long ttHits, long ttCutoffs) {
+		this.nodes += nodes;
+		this.evals += evals;
+		this.ttProbes += ttProbes;
+		this.ttHits += ttHits;
+		this.ttCutoffs += ttCutoffs;
+	}
+
+	/**
+	 * Records that the search completed a depth. Depths must be recorded in
+	 * increasing order.
+	 *
+	 * @param depth   completed depth (at least 1)
+	 * @param elapsed nanoseconds from the start of the search
+	 * @param nodes   nodes visited from the start of the search
+	 */
+	public void completedDepth(int depth, long elapsed, long nodes) {
+		grow(depth);
+		DT[depth - 1] = elapsed;
+		DN[depth - 1] = nodes;
+		DC[depth - 1] = 1;
+		depthSum = maxDepth = depth;
+		ebfSum = 0;
+		ebfCount = 0;
+		// nodes of the last iteration over the nodes of the previous one
+		long last = nodes - (depth > 1 ? DN[depth - 2] : 0);
+		long previous = depth > 2 ? DN[depth - 2] - DN[depth - 3] : 0;
+		if (depth > 1 && DC[depth - 2] > 0 && previous > 0) {
+			ebfSum = Math.log((double) last / previous);
+			ebfCount = 1;
+		}
+	}
+
+	/**
+	 * Sets the search time
+	 *
+	 * @param nanos search time in nanoseconds
+	 */
+	public void setTime(long nanos) {
+		this.time = nanos;
+	}
+
+	/**
+	 * Sets the principal variation: the expected moves from the searched position
+	 *
+	 * @param moves columns, starting with the selected one
+	 */
+	public void setPrincipalVariation(int[] moves) {
+		this.pv = moves.clone();
+	}
+
+	/**
+	 * Records that the time ran out before the search was complete: during an
+	 * iteration of an iterative deepening search, or before a solver proved
+	 * the result. The selected column is the best one found so far
+	 */
+	public void setTimedOut() {
+		this.timeouts = 1;
+	}
+
+	/**
+	 * Sets the nodes of the previous searches that the search started from
+	 * (a search tree kept across the moves)
+	 *
+	 * @param nodes kept nodes
+	 */
+	public void setReused(long nodes) {
+		this.reused = nodes;
+	}
+
+	/**
+	 * Sets the expected result of the selected column, for the players that
+	 * estimate it
+	 *
+	 * @param value between 0 (loss) and 1 (win)
+	 */
+	public void setValue(double value) {
+		this.valueSum = value;
+		this.valueCount = 1;
+	}
+
+	/**
+	 * Adds the statistics of other searches to these ones. The principal
+	 * variation becomes the one of S.
+	 *
+	 * @param S statistics to add
+	 */
+	public void add(CXSearchStats S) {
+		searches += S.searches;
+		count(S.nodes, S.evals, S.ttProbes, S.ttHits, S.ttCutoffs);
+		time += S.time;
+		depthSum += S.depthSum;
+		maxDepth = Math.max(maxDepth, S.maxDepth);
+		pv = S.pv.clone();
+		grow(S.DC.length);
+		for (int d = 0; d < S.DC.length; d++) {
+			DT[d] += S.DT[d];
+			DN[d] += S.DN[d];
+			DC[d] += S.DC[d];
+		}
+		ebfSum += S.ebfSum;
+		ebfCount += S.ebfCount;
+		timeouts += S.timeouts;
+		reused += S.reused;
+		valueSum += S.valueSum;
+		valueCount += S.valueCount;
+	}
+
+	/**
+	 * Returns the number of searches these statistics are made of
+	 */
+	public int searches() {
+		return searches;
+	}
+
+	public long nodes() {
+		return nodes;
+	}
+
+	public long evals() {
+		return evals;
+	}
+
+	public long ttProbes() {
+		return ttProbes;
+	}
+
+	public long ttHits() {
+		return ttHits;
+	}
+
+	public long ttCutoffs() {
+		return ttCutoffs;
+	}
+
+	/**
+	 * Returns the number of searches stopped by the time limit
+	 */
+	public int timeouts() {
+		return timeouts;
+	}
+
+	public long reused() {
+		return reused;
+	}
+
+	/**
+	 * Returns the average expected result of the selected columns
+	 *
+	 * @return between 0 and 1, or -1 if no search estimated it
+	 */
+	public double value() {
+		return valueCount == 0 ? -1 : valueSum / valueCount;
+	}
+
+	/**
+	 * Returns the search time in nanoseconds
+	 */
+	public long time() {
+		return time;
+	}
+
+	/**
+	 * Returns the deepest completed depth
+	 */
+	public int depth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the average completed depth
+	 */
+	public double averageDepth() {
+		return (double) depthSum / searches;
+	}
+
+	/**
+	 * Returns the principal variation of the last search
+	 */
+	public int[] principalVariation() {
+		return pv.clone();
+	}
+
+	/**
+	 * Returns the nodes visited per second
+	 */
+	public double nodesPerSecond() {
+		return time == 0 ? 0 : nodes * 1e9 / time;
+	}
+
+	/**
+	 * Returns the fraction of the transposition table probes that found the position
+	 */
+	public double ttHitRate() {
+		return ttProbes == 0 ? 0 : (double) ttHits / ttProbes;
+	}
+
+	/**
+	 * Returns the effective branching factor: the nodes of the last completed
+	 * iteration over the nodes of the previous one, geometric mean over the
+	 * searches
+	 *
+	 * @return branching factor, or 0 if no search completed three depths
+	 */
+	public double branchingFactor() {
+		return ebfCount == 0 ? 0 : Math.exp(ebfSum / ebfCount);
+	}
+
+	/**
+	 * Returns the average time to complete a depth
+	 *
+	 * @param depth search depth (at least 1)
+	 *
+	 * @return nanoseconds, or -1 if no search completed the depth
+	 */
+	public long timeToDepth(int depth) {
+		return depth > DC.length || DC[depth - 1] == 0 ? -1 : DT[depth - 1] / DC[depth - 1];
+	}
+
+	/**
+	 * Returns the number of searches that completed a depth
+	 *
+	 * @param depth search depth (at least 1)
+	 */
+	public int searchesToDepth(int depth) {
+		return depth > DC.length ? 0 : DC[depth - 1];
+	}
+
+	private void grow(int depths) {
+		if (DC.length < depths) {
+			DT = Arrays.copyOf(DT, depths);
+			DN = Arrays.copyOf(DN, depths);
+			DC = Arrays.copyOf(DC, depths);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder S = new StringBuilder();
+		S.append(String.format("searches %d depth %.1f (max %d) nodes %d (%.0f/s) evals %d", searches,
+				averageDepth(), maxDepth, nodes, nodesPerSecond(), evals));
+		S.append(String.format(" TT probes %d hits %.1f%% cutoffs %d EBF %.2f", ttProbes, 100 * ttHitRate(),
+				ttCutoffs, branchingFactor()));
+		if (timeouts > 0)
+			S.append(" timeouts ").append(timeouts);
+		if (reused > 0)
+			S.append(" reused ").append(reused);
+		if (valueCount > 0)
+			S.append(String.format(" value %.3f", value()));
+		if (searches == 1)
+			S.append(" PV ").append(Arrays.toString(pv));
+		return S.toString();
+	}
+}